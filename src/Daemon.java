@@ -0,0 +1,231 @@
+import control.CommandLine;
+import control.Control;
+import control.Exit;
+import util.Output;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// The compiler as a server on a Unix domain socket, for "-server",
+// and its client, for "-client". The server stays up, so that the
+// code of the compiler is compiled by the JIT once, not in each run,
+// and its pools and its parse cache are those of the last request.
+// A request is the working directory of the client, then the number
+// of its arguments and each of them, as "DataOutput" writes them; it
+// is run as a command line, from the options the server was started
+// with. What the run prints is sent back as it is printed, in frames:
+// a tag, 'o' for the output or 'e' for the errors, the number of
+// bytes as an int, then the bytes; a last frame, 'x' and the exit
+// status, ends the reply. A relative path is taken from the client's
+// working directory, and is sent back made absolute if that is not
+// the server's.
+// Requests are served one at a time, as the options are global; each
+// compiles its files in parallel, with "-j".
+public class Daemon {
+    private static final byte out = 'o';
+    private static final byte err = 'e';
+    private static final byte exit = 'x';
+
+    // the working directory of the server
+    private static final Path here = Path.of("").toAbsolutePath();
+
+    // an option, with the value it has when a request starts
+    private record Option(Field field, Object value) {
+    }
+
+    // the options as they are now.
+    private static List<Option> options() throws IllegalAccessException {
+        List<Option> options = new ArrayList<>();
+        for (Class<?> c : Control.class.getDeclaredClasses()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers))
+                    options.add(new Option(field, field.get(null)));
+            }
+        }
+        return options;
+    }
+
+    private static void restore(List<Option> options) throws IllegalAccessException {
+        for (Option option : options)
+            option.field().set(null, option.value());
+    }
+
+    // the frames of one tag, sent to a client.
+    private static class Frames extends OutputStream {
+        private final DataOutputStream to;
+        private final byte tag;
+
+        Frames(DataOutputStream to, byte tag) {
+            this.to = to;
+            this.tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        // a token dump writes from a thread of its own
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return;
+            synchronized (this.to) {
+                this.to.writeByte(this.tag);
+                this.to.writeInt(len);
+                this.to.write(b, off, len);
+                this.to.flush();
+            }
+        }
+    }
+
+    // serve the requests of the clients of "socket", until killed.
+    static void serve(String socket) throws Exception {
+        Path path = Path.of(socket).toAbsolutePath();
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(path);
+        if (Files.exists(path)) {
+            if (Files.isRegularFile(path) || Files.isDirectory(path)) {
+                System.err.println(STR."Error: not a socket: \{socket}");
+                throw new Exit(1);
+            }
+            try (SocketChannel _ = SocketChannel.open(address)) {
+                System.err.println(STR."Error: a server is already running on \{socket}");
+                throw new Exit(1);
+            } catch (IOException e) {
+                // left by a server that is gone
+                Files.deleteIfExists(path);
+            }
+        }
+        // the paths the server was started with are its own
+        Control.Lexer.dumpFile = resolve(here, Control.Lexer.dumpFile);
+        Control.Parser.cacheDir = resolve(here, Control.Parser.cacheDir);
+        List<Option> options = options();
+        Output.install();
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    // nothing left to do
+                }
+            }));
+            System.out.println(STR."Tiger server on \{socket}");
+            while (true) {
+                try (SocketChannel client = server.accept()) {
+                    restore(options);
+                    handle(client);
+                } catch (IOException e) {
+                    // the client went away
+                }
+            }
+        }
+    }
+
+    // "name" taken from "dir".
+    private static String resolve(Path dir, String name) {
+        if (name == null || dir.equals(here))
+            return name;
+        return dir.resolve(name).toString();
+    }
+
+    private static void handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+        DataOutputStream to = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+        Path dir = Path.of(in.readUTF());
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++)
+            args[i] = in.readUTF();
+        int status;
+        try {
+            status = Output.capture(new Frames(to, out), new Frames(to, err), () -> run(dir, args));
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            // "run" has a status for all a request throws; a request
+            // must not end the server, all the same
+            e.printStackTrace();
+            status = 1;
+        }
+        synchronized (to) {
+            to.writeByte(exit);
+            to.writeInt(status);
+            to.flush();
+        }
+    }
+
+    // run the command line "args" of a client in "dir"; return the
+    // exit status, whatever the run throws.
+    private static int run(Path dir, String[] args) {
+        try {
+            CommandLine cmd = new CommandLine();
+            List<String> fileNames = new ArrayList<>();
+            for (String fileName : cmd.scan(args))
+                fileNames.add(resolve(dir, fileName));
+            Control.Lexer.dumpFile = resolve(dir, Control.Lexer.dumpFile);
+            Control.Parser.cacheDir = resolve(dir, Control.Parser.cacheDir);
+            Tiger.run(cmd, fileNames);
+            return 0;
+        } catch (Exit e) {
+            return e.status();
+        } catch (Exception | Error e) {
+            // as the run would have ended on its own
+            e.printStackTrace();
+            return 1;
+        }
+    }
+
+    // have the server on "socket" run the command line "args", but for
+    // "-client", and print what it sends back; return the exit status.
+    static int forward(String socket, String[] args) throws IOException {
+        List<String> request = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-client"))
+                i++;
+            else
+                request.add(args[i]);
+        }
+        SocketChannel server;
+        try {
+            server = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            System.err.println(STR."Error: no server on \{socket}");
+            return 1;
+        }
+        try (server) {
+            DataOutputStream to = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(server)));
+            to.writeUTF(here.toString());
+            to.writeInt(request.size());
+            for (String arg : request)
+                to.writeUTF(arg);
+            to.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(server)));
+            while (true) {
+                byte tag = in.readByte();
+                if (tag == exit) {
+                    System.out.flush();
+                    return in.readInt();
+                }
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                (tag == out ? System.out : System.err).write(bytes, 0, bytes.length);
+            }
+        }
+    }
+}
@@ -1,31 +1,220 @@
+import ast.Ast;
+import ast.AstArena;
+import ast.NodeCount;
 import control.CommandLine;
+import control.Control;
+import control.Exit;
+import parser.ParseCache;
 import parser.Parser;
+import util.Output;
+import util.Stats;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 // the Tiger compiler main class.
 public class Tiger {
+    // a file compiled in a batch: its size, its errors, what
+    // its compilation printed, and its phases, with "-stats"
+    private record Compiled(long bytes, int errors, byte[] output, byte[] messages, Stats stats) {
+    }
+
+    // the pool of the last batch, kept for the next one in a server
+    private static ExecutorService pool = null;
+    private static int poolJobs = 0;
+
     public static void main(String[] args) throws Exception {
-        Parser parser;
-        // ///////////////////////////////////////////////////////
-        // process command line arguments
-        CommandLine cmd = new CommandLine();
-        // get the file to be compiled
-        String fileName = cmd.scan(args);
-        if (fileName == null) {
+        try {
+            // ///////////////////////////////////////////////////////
+            // process command line arguments
+            CommandLine cmd = new CommandLine();
+            // get the files to be compiled
+            List<String> fileNames = cmd.scan(args);
+            if (Control.Driver.server != null) {
+                if (!fileNames.isEmpty())
+                    cmd.error("server takes no input file");
+                Daemon.serve(Control.Driver.server);
+                return;
+            }
+            if (Control.Driver.client != null)
+                throw new Exit(Daemon.forward(Control.Driver.client, args));
+            run(cmd, fileNames);
+        } catch (Exit e) {
+            System.out.flush();
+            System.exit(e.status());
+        }
+    }
+
+    // compile the files and directories named on the command line
+    // "cmd" was scanned from; end with the status 1 if any had errors.
+    static void run(CommandLine cmd, List<String> fileNames) throws Exception {
+        if (fileNames.isEmpty()) {
             // no input file is given, then exit silently.
             return;
         }
 
         // /////////////////////////////////////////////////////////
-        // otherwise, we continue the normal compilation pipeline.
+        // otherwise, we continue the normal compilation pipeline,
+        // for a single file, or for a batch of them.
+        int errors;
+        if (fileNames.size() == 1 && !Files.isDirectory(Path.of(fileNames.getFirst()))) {
+            Stats stats = Control.Driver.stats ? new Stats() : null;
+            errors = compile(fileNames.getFirst(), stats);
+            if (stats != null)
+                stats.report(fileNames.getFirst(), Control.Driver.statsFormat == Control.Driver.StatsFormat.Json);
+        } else {
+            List<String> files = sources(cmd, fileNames);
+            if (Control.Lexer.dumpFile != null && files.size() > 1)
+                cmd.error("dump-to takes a single input file");
+            errors = batch(files);
+        }
+        if (Control.Parser.cacheDir != null)
+            ParseCache.report();
+        if (errors > 0)
+            throw new Exit(1);
+    }
+
+    // compile "fileName", measuring its phases into "stats", if not
+    // null; return the number of errors it reported.
+    private static int compile(String fileName, Stats stats) {
+        Parser parser;
         // first, create a parser:
         long startTime = System.currentTimeMillis();
-        parser = new Parser(fileName);
+        parser = new Parser(fileName, stats);
         // then use it to parse the input file:
-        parser.parse();
+        Ast.Program.T ast = null;
+        AstArena arena = null;
+        switch (Control.Parser.ast) {
+            case Tree -> ast = parser.parse();
+            case Arena -> {
+                arena = parser.parseArena();
+                // nothing later asks for the skipped bodies: parse them
+                // now, so that their errors are reported
+                if (Control.Parser.bodies != Control.Parser.Bodies.Eager) {
+                    if (stats != null)
+                        stats.start(Stats.Phase.Bodies);
+                    parser.forceBodies();
+                    if (stats != null)
+                        stats.end(Stats.Phase.Bodies);
+                }
+            }
+        }
         long endTime = System.currentTimeMillis();
         long timeElapsed = endTime - startTime;
         System.out.println("Parsing time in milliseconds: " + timeElapsed + " ms");
+        if (Control.Parser.astStats) {
+            if (stats != null)
+                stats.start(Stats.Phase.Count);
+            // the object tree is reported even for an arena, to compare
+            NodeCount count = new NodeCount();
+            count.countProgram(ast != null ? ast : arena.toProgram(arena.root()));
+            count.report();
+            if (arena != null)
+                System.out.println(STR."AST arena: \{arena.nodes()} nodes in \{arena.footprint()} B");
+            if (stats != null)
+                stats.end(Stats.Phase.Count);
+        }
+        return parser.errors();
+    }
+
+    // the files named, with the ".java" files under each directory
+    // named, in the order of their paths.
+    private static List<String> sources(CommandLine cmd, List<String> fileNames) throws IOException {
+        List<String> files = new ArrayList<>();
+        for (String fileName : fileNames) {
+            Path path = Path.of(fileName);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> paths = Files.walk(path)) {
+                    paths.filter(p -> p.toString().endsWith(".java") && Files.isRegularFile(p))
+                            .sorted()
+                            .forEach(p -> files.add(p.toString()));
+                }
+            } else if (Files.isRegularFile(path)) {
+                files.add(fileName);
+            } else {
+                cmd.error(STR."no such file or directory: \{fileName}");
+            }
+        }
+        return files;
     }
-}
 
+    // a work-stealing pool of "-j" workers.
+    private static synchronized ExecutorService pool() {
+        if (pool == null || poolJobs != Control.Driver.jobs) {
+            if (pool != null)
+                pool.shutdown();
+            pool = Executors.newWorkStealingPool(Control.Driver.jobs);
+            poolJobs = Control.Driver.jobs;
+        }
+        return pool;
+    }
 
+    // compile "files", up to "-j" of them at once, on a work-stealing
+    // pool. What each prints is kept, and printed in the order of the
+    // files, as soon as those before it are done; then the throughput
+    // of the whole batch. A file whose compilation throws fails alone,
+    // with an error, and what it printed and the exception are printed
+    // in its turn. Return the number of errors.
+    private static int batch(List<String> files) throws Exception {
+        Output.install();
+        long startTime = System.nanoTime();
+        ExecutorService pool = pool();
+        List<Future<Compiled>> tasks = new ArrayList<>();
+        for (String file : files) {
+            tasks.add(pool.submit(() -> {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                ByteArrayOutputStream messages = new ByteArrayOutputStream();
+                Stats stats = Control.Driver.stats ? new Stats() : null;
+                long bytes = 0;
+                int errors;
+                try {
+                    bytes = Files.size(Path.of(file));
+                    errors = Output.capture(output, messages, () -> compile(file, stats));
+                } catch (Exit e) {
+                    // it has printed why
+                    errors = 1;
+                } catch (Exception | Error e) {
+                    e.printStackTrace(new PrintStream(messages, true));
+                    errors = 1;
+                }
+                return new Compiled(bytes, errors, output.toByteArray(), messages.toByteArray(), stats);
+            }));
+        }
+        long bytes = 0;
+        int errors = 0;
+        int failed = 0;
+        Stats stats = Control.Driver.stats ? new Stats() : null;
+        for (Future<Compiled> task : tasks) {
+            Compiled file = task.get();
+            System.out.write(file.output(), 0, file.output().length);
+            System.out.flush();
+            System.err.write(file.messages(), 0, file.messages().length);
+            System.err.flush();
+            bytes += file.bytes();
+            errors += file.errors();
+            if (file.errors() > 0)
+                failed++;
+            if (stats != null)
+                stats.add(file.stats());
+        }
+        long time = System.nanoTime() - startTime;
+        double seconds = Math.max(time, 1) / 1e9;
+        System.out.println(String.format("Compiled %d files, %d bytes, in %d ms with %d jobs: %.1f files/s, %.2f MB/s",
+                files.size(), bytes, time / 1_000_000, Control.Driver.jobs,
+                files.size() / seconds, bytes / seconds / (1 << 20)));
+        if (errors > 0)
+            System.out.println(STR."Errors: \{errors} in \{failed} of \{files.size()} files");
+        if (stats != null)
+            stats.report(STR."\{files.size()} files", Control.Driver.statsFormat == Control.Driver.StatsFormat.Json);
+        return errors;
+    }
+}
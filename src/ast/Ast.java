@@ -0,0 +1,226 @@
+package ast;
+
+import java.util.List;
+
+// the abstract syntax trees for MiniJava.
+public class Ast {
+    // ///////////////////////////////////////////////
+    // type
+    public static class Type {
+        // the type
+        public sealed interface T
+                permits Boolean, ClassType, Int, IntArray, StringArray, Void {
+        }
+
+        // boolean
+        public record Boolean() implements T {
+        }
+
+        // id
+        public record ClassType(String id) implements T {
+        }
+
+        // int
+        public record Int() implements T {
+        }
+
+        // int[]
+        public record IntArray() implements T {
+        }
+
+        // String[], only as the argument of "main"
+        public record StringArray() implements T {
+        }
+
+        // void, only as the result of "main"
+        public record Void() implements T {
+        }
+    }
+    // end of type
+
+    // ///////////////////////////////////////////////
+    // variable declaration
+    public static class VarDecl {
+        // the type
+        public sealed interface T
+                permits Singleton {
+        }
+
+        // type id;
+        public record Singleton(Type.T type,
+                                String id) implements T {
+        }
+    }
+    // end of variable declaration
+
+    // ///////////////////////////////////////////////
+    // expression
+    public static class Exp {
+        // the type
+        public sealed interface T
+                permits ArraySelect, Bop, Call, False, Id, Length,
+                NewIntArray, NewObject, Not, Num, This, True {
+        }
+
+        // e[e]
+        public record ArraySelect(T array,
+                                  T index) implements T {
+        }
+
+        // e bop e, where bop is one of "&&", "<", "+", "-" and "*"
+        public record Bop(T left,
+                          String bop,
+                          T right) implements T {
+        }
+
+        // e.id(explist)
+        public record Call(T exp,
+                           String id,
+                           List<T> args) implements T {
+        }
+
+        // false
+        public record False() implements T {
+        }
+
+        // x
+        public record Id(String id) implements T {
+        }
+
+        // e.length
+        public record Length(T array) implements T {
+        }
+
+        // new int[e]
+        public record NewIntArray(T exp) implements T {
+        }
+
+        // new id()
+        public record NewObject(String id) implements T {
+        }
+
+        // !e
+        public record Not(T exp) implements T {
+        }
+
+        // n
+        public record Num(int num) implements T {
+        }
+
+        // this
+        public record This() implements T {
+        }
+
+        // true
+        public record True() implements T {
+        }
+    }
+    // end of expression
+
+    // ///////////////////////////////////////////////
+    // statement
+    public static class Stm {
+        // the type
+        public sealed interface T
+                permits Assign, AssignArray, Block, If, Print, While {
+        }
+
+        // x = e;
+        public record Assign(String id,
+                             Exp.T exp) implements T {
+        }
+
+        // x[e] = e;
+        public record AssignArray(String id,
+                                  Exp.T index,
+                                  Exp.T exp) implements T {
+        }
+
+        // {s*}
+        public record Block(List<T> stms) implements T {
+        }
+
+        // if (e) s else s; the "else" part may be null
+        public record If(Exp.T cond,
+                         T thenn,
+                         T elsee) implements T {
+        }
+
+        // System.out.println(e);
+        public record Print(Exp.T exp) implements T {
+        }
+
+        // while (e) s
+        public record While(Exp.T cond,
+                            T body) implements T {
+        }
+    }
+    // end of statement
+
+    // ///////////////////////////////////////////////
+    // method declaration
+    public static class MethodDecl {
+        // the type
+        public sealed interface T
+                permits Singleton {
+        }
+
+        // public type id(formals) { locals stms return e; }
+        public record Singleton(Type.T retType,
+                                String id,
+                                List<VarDecl.T> formals,
+                                List<VarDecl.T> locals,
+                                List<Stm.T> stms,
+                                Exp.T retExp) implements T {
+        }
+    }
+    // end of method declaration
+
+    // ///////////////////////////////////////////////
+    // class declaration
+    public static class ClassDecl {
+        // the type
+        public sealed interface T
+                permits Singleton {
+        }
+
+        // class id extends id { fields methods }; "extends" may be null
+        public record Singleton(String id,
+                                String extends_,
+                                List<VarDecl.T> fields,
+                                List<MethodDecl.T> methods) implements T {
+        }
+    }
+    // end of class declaration
+
+    // ///////////////////////////////////////////////
+    // main class
+    public static class MainClass {
+        // the type
+        public sealed interface T
+                permits Singleton {
+        }
+
+        // class id { public static void main(String[] arg) { stm } }
+        public record Singleton(String id,
+                                String arg,
+                                Stm.T stm) implements T {
+        }
+    }
+    // end of main class
+
+    // ///////////////////////////////////////////////
+    // program
+    public static class Program {
+        // the type
+        public sealed interface T
+                permits Singleton {
+        }
+
+        // main class, followed by the other classes
+        public record Singleton(MainClass.T mainClass,
+                                List<ClassDecl.T> classes) implements T {
+        }
+    }
+    // end of program
+}
@@ -0,0 +1,925 @@
+package ast;
+
+import ast.Ast.ClassDecl;
+import ast.Ast.Exp;
+import ast.Ast.MainClass;
+import ast.Ast.MethodDecl;
+import ast.Ast.Program;
+import ast.Ast.Stm;
+import ast.Ast.Type;
+import ast.Ast.VarDecl;
+import lexer.SymbolTable;
+import util.ByteList;
+import util.IntList;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// An AST arena holds a whole abstract syntax tree in one growable
+// int array, instead of one object per node: the parser appends
+// each node after its children, and a node is named by the index
+// of its header word.
+// The low byte of a header is the node kind; the other 24 bits hold
+// a payload: a symbol id, a small literal, an operator, or the number
+// of words the node has before its header. The last child of a
+// compact node is not stored at all, as it is the node just before
+// it: in "x = x + 1", the "Assign" header directly follows the "Bop"
+// header, which follows its right operand "Num".
+// An "Assign" of a "Bop" of an "Id" and a "Num" thus takes five
+// words, against four objects of 16 to 24 bytes each in "Ast".
+//
+// Layouts, as the words before the header, then the header:
+//   False, This, True, Type*         [kind]
+//   Id, NewObject, TypeClass         [kind|symbol]
+//   Num                              [kind|value], or
+//   NumWide                          value [kind]
+//   Length, NewIntArray, Not, Print  [kind]                exp is h-1
+//   Assign                           [kind|symbol]         exp is h-1
+//   VarDecl                          [kind|symbol]         type is h-1
+//   Bop                              left [kind|bop]       right is h-2
+//   ArraySelect                      array [kind]          index is h-2
+//   AssignArray                      index [kind|symbol]   exp is h-2
+//   If                               cond then else [kind]
+//   While                            cond body [kind]
+//   MainClass                        symbol arg stm [kind]
+//   Call                             exp symbol args... [kind|size]
+//   Block                            stms... [kind|size]
+//   MethodDecl                       retType symbol retExp nformals
+//                                    formals... nlocals locals...
+//                                    stms... [kind|size]
+//   LazyMethodDecl                   retType symbol -1 nformals
+//                                    formals... 0 from to [kind|size]
+//   ClassDecl                        symbol extends nfields fields...
+//                                    methods... [kind|size]
+//   Program                          mainClass classes... [kind|size]
+// A missing part, lost to a syntax error, is -1.
+// A "LazyMethodDecl" is a method whose body was not parsed, only
+// skipped, as the tokens "from" to "to" (excluded). Once parsed, the
+// body makes a new "MethodDecl" at the end of the arena, which takes
+// the place of the lazy one in its class. A part parsed again after
+// an edit is put in place the same way. The root then is no longer
+// the last node, and the nodes replaced are left unused, until
+// "compact()" drops them.
+public class AstArena {
+    public enum Kind {
+        ArraySelect,
+        Assign,
+        AssignArray,
+        Block,
+        Bop,
+        Call,
+        ClassDecl,
+        False,
+        Id,
+        If,
+        LazyMethodDecl,
+        Length,
+        MainClass,
+        MethodDecl,
+        NewIntArray,
+        NewObject,
+        Not,
+        Num,
+        NumWide,
+        Print,
+        Program,
+        This,
+        True,
+        TypeBoolean,
+        TypeClass,
+        TypeInt,
+        TypeIntArray,
+        TypeStringArray,
+        TypeVoid,
+        VarDecl,
+        While,
+    }
+
+    private static final Kind[] kinds = Kind.values();
+    private static final String[] bops = {"&&", "<", "+", "-", "*"};
+    // the largest payload; as a symbol, it stands for a missing one
+    private static final int none = (1 << 24) - 1;
+
+    private final SymbolTable symbols;
+    private int[] words;
+    private int size;
+    private int nodes;
+    private int root = -1;
+
+    public AstArena(SymbolTable symbols, int capacity) {
+        this.symbols = symbols;
+        this.words = new int[Math.max(capacity, 1)];
+        this.size = 0;
+        this.nodes = 0;
+    }
+
+    public AstArena(SymbolTable symbols) {
+        this(symbols, 1024);
+    }
+
+    public SymbolTable symbols() {
+        return this.symbols;
+    }
+
+    // ///////////////////////////////////////////
+    // building
+
+    private void put(int word) {
+        if (this.size == this.words.length)
+            this.words = Arrays.copyOf(this.words, this.size << 1);
+        this.words[this.size++] = word;
+    }
+
+    private int header(Kind kind, int payload) {
+        if (payload < 0 || payload > none)
+            throw new util.Error(STR."AST node payload out of range: \{payload}");
+        put(kind.ordinal() | (payload << 8));
+        this.nodes++;
+        return this.size - 1;
+    }
+
+    private int header(Kind kind) {
+        return header(kind, 0);
+    }
+
+    private static int inline(int symbol) {
+        return symbol < 0 ? none : symbol;
+    }
+
+    // the implicit last child "child" must be the node just added.
+    private void last(int child) {
+        if (child != this.size - 1)
+            throw new util.Error("AST children out of order");
+    }
+
+    private void putAll(IntList list) {
+        for (int i = 0; i < list.size(); i++)
+            put(list.get(i));
+    }
+
+    // False, This, True and the types without a name.
+    public int leaf(Kind kind) {
+        return header(kind);
+    }
+
+    // Id, NewObject and TypeClass.
+    public int named(Kind kind, int symbol) {
+        return header(kind, inline(symbol));
+    }
+
+    public int intLiteral(int value) {
+        if (value >= 0 && value < none)
+            return header(Kind.Num, value);
+        put(value);
+        return header(Kind.NumWide);
+    }
+
+    // Length, NewIntArray, Not and Print.
+    public int unary(Kind kind, int exp) {
+        last(exp);
+        return header(kind);
+    }
+
+    public int assign(int symbol, int exp) {
+        last(exp);
+        return header(Kind.Assign, inline(symbol));
+    }
+
+    public int varDecl(int type, int symbol) {
+        last(type);
+        return header(Kind.VarDecl, inline(symbol));
+    }
+
+    public int bop(int left, String bop, int right) {
+        last(right);
+        put(left);
+        int op = switch (bop) {
+            case "&&" -> 0;
+            case "<" -> 1;
+            case "+" -> 2;
+            case "-" -> 3;
+            case "*" -> 4;
+            default -> throw new util.Error(bop);
+        };
+        return header(Kind.Bop, op);
+    }
+
+    public int arraySelect(int array, int index) {
+        last(index);
+        put(array);
+        return header(Kind.ArraySelect);
+    }
+
+    public int assignArray(int symbol, int index, int exp) {
+        last(exp);
+        put(index);
+        return header(Kind.AssignArray, inline(symbol));
+    }
+
+    public int ifStm(int cond, int thenn, int elsee) {
+        put(cond);
+        put(thenn);
+        put(elsee);
+        return header(Kind.If);
+    }
+
+    public int whileStm(int cond, int body) {
+        put(cond);
+        put(body);
+        return header(Kind.While);
+    }
+
+    public int mainClass(int symbol, int arg, int stm) {
+        put(symbol);
+        put(arg);
+        put(stm);
+        return header(Kind.MainClass);
+    }
+
+    public int call(int exp, int symbol, IntList args) {
+        int start = this.size;
+        put(exp);
+        put(symbol);
+        putAll(args);
+        return header(Kind.Call, this.size - start);
+    }
+
+    public int block(IntList stms) {
+        int start = this.size;
+        putAll(stms);
+        return header(Kind.Block, this.size - start);
+    }
+
+    public int methodDecl(int retType, int symbol, IntList formals, IntList locals, IntList stms, int retExp) {
+        int start = this.size;
+        put(retType);
+        put(symbol);
+        put(retExp);
+        put(formals.size());
+        putAll(formals);
+        put(locals.size());
+        putAll(locals);
+        putAll(stms);
+        return header(Kind.MethodDecl, this.size - start);
+    }
+
+    public int classDecl(int symbol, int extends_, IntList fields, IntList methods) {
+        int start = this.size;
+        put(symbol);
+        put(extends_);
+        put(fields.size());
+        putAll(fields);
+        putAll(methods);
+        return header(Kind.ClassDecl, this.size - start);
+    }
+
+    public int lazyMethodDecl(int retType, int symbol, IntList formals, int from, int to) {
+        int start = this.size;
+        put(retType);
+        put(symbol);
+        put(-1);
+        put(formals.size());
+        putAll(formals);
+        put(0);
+        put(from);
+        put(to);
+        return header(Kind.LazyMethodDecl, this.size - start);
+    }
+
+    // the "MethodDecl" of the lazy method "lazy", with its body.
+    public int methodBody(int lazy, IntList locals, IntList stms, int retExp) {
+        IntList formals = new IntList();
+        for (int i = 0; i < formals(lazy); i++)
+            formals.add(formal(lazy, i));
+        return methodDecl(type(lazy), symbol(lazy), formals, locals, stms, retExp);
+    }
+
+    // a copy of MethodDecl "method", with the statements "stms".
+    public int methodDecl(int method, IntList stms) {
+        IntList formals = new IntList();
+        for (int i = 0; i < formals(method); i++)
+            formals.add(formal(method, i));
+        IntList locals = new IntList();
+        for (int i = 0; i < locals(method); i++)
+            locals.add(local(method, i));
+        return methodDecl(type(method), symbol(method), formals, locals, stms, retExp(method));
+    }
+
+    // put "method" in place of the i-th method of class "node".
+    public void replaceMethod(int node, int i, int method) {
+        this.words[start(node) + 3 + fields(node) + i] = method;
+    }
+
+    // put "stm" in place of the i-th statement of Block or MethodDecl "node".
+    public void replaceStm(int node, int i, int stm) {
+        if (kind(node) == Kind.Block)
+            this.words[start(node) + i] = stm;
+        else
+            this.words[start(node) + 5 + formals(node) + locals(node) + i] = stm;
+    }
+
+    // put "clazz" in place of the i-th class of program "node".
+    public void replaceClass(int node, int i, int clazz) {
+        this.words[start(node) + 1 + i] = clazz;
+    }
+
+    public void replaceMainClass(int node, int mainClass) {
+        this.words[start(node)] = mainClass;
+    }
+
+    public int program(int mainClass, IntList classes) {
+        int start = this.size;
+        put(mainClass);
+        putAll(classes);
+        this.root = header(Kind.Program, this.size - start);
+        return this.root;
+    }
+
+    // append the whole nodes in words "from" to "to" (excluded) of
+    // "other", whose children are all in that range too; return the
+    // handle of the last one. The words naming a node are moved along
+    // with it, as in "this" it starts at "size" instead of "from".
+    public int append(AstArena other, int from, int to) {
+        int shift = this.size - from;
+        if (this.size + (to - from) > this.words.length)
+            this.words = Arrays.copyOf(this.words, Math.max(this.size + (to - from), this.size << 1));
+        System.arraycopy(other.words, from, this.words, this.size, to - from);
+        // walk the copy back from its last header
+        int[] ranges = new int[8];
+        int node = this.size + (to - from) - 1;
+        while (node >= this.size) {
+            this.nodes++;
+            for (int r = handles(node, ranges) - 2; r >= 0; r -= 2) {
+                for (int i = ranges[r]; i < ranges[r + 1]; i++) {
+                    if (this.words[i] >= 0)
+                        this.words[i] += shift;
+                }
+            }
+            node = first(node) - 1;
+        }
+        this.size += to - from;
+        return this.size - 1;
+    }
+
+    // drop the nodes not reachable from the root, such as those
+    // replaced, and move the others down, in the same order: as a
+    // node still comes right after its implicit last child, only the
+    // handles stored in words are changed.
+    public void compact() {
+        int root = root();
+        int[] ranges = new int[8];
+        // where each node goes: -1 for a node not reached, then 0
+        int[] moved = new int[this.size];
+        Arrays.fill(moved, -1);
+        IntList stack = new IntList();
+        moved[root] = 0;
+        stack.add(root);
+        while (stack.size() > 0) {
+            int node = stack.pop();
+            for (int r = handles(node, ranges) - 2; r >= 0; r -= 2) {
+                for (int i = ranges[r]; i < ranges[r + 1]; i++) {
+                    int child = this.words[i];
+                    if (child >= 0 && moved[child] < 0) {
+                        moved[child] = 0;
+                        stack.add(child);
+                    }
+                }
+            }
+            switch (kind(node)) {
+                case Length, NewIntArray, Not, Print, Assign, VarDecl, Bop, ArraySelect, AssignArray -> {
+                    int child = first(node) - 1;
+                    moved[child] = 0;
+                    stack.add(child);
+                }
+                default -> {
+                }
+            }
+        }
+        // the header of the node starting at each word, walking back
+        // over all nodes
+        int[] header = new int[this.size];
+        for (int node = this.size - 1; node >= 0; ) {
+            int start = first(node);
+            header[start] = node;
+            node = start - 1;
+        }
+        int size = 0;
+        for (int start = 0; start < this.size; start = header[start] + 1) {
+            int node = header[start];
+            if (moved[node] >= 0) {
+                size += node - start + 1;
+                moved[node] = size - 1;
+            }
+        }
+        // then move them, and their handles
+        int nodes = 0;
+        for (int start = 0; start < this.size; start = header[start] + 1) {
+            int node = header[start];
+            if (moved[node] < 0)
+                continue;
+            int to = moved[node];
+            System.arraycopy(this.words, start, this.words, to - (node - start), node - start + 1);
+            for (int r = handles(to, ranges) - 2; r >= 0; r -= 2) {
+                for (int i = ranges[r]; i < ranges[r + 1]; i++) {
+                    if (this.words[i] >= 0)
+                        this.words[i] = moved[this.words[i]];
+                }
+            }
+            nodes++;
+        }
+        this.size = size;
+        this.nodes = nodes;
+        if (this.root >= 0)
+            this.root = moved[root];
+    }
+
+    // the words node "node" has before its header that hold handles,
+    // missing ones (-1) included, as ranges: put the first word and
+    // the end (excluded) of each in "ranges"; return twice their
+    // number.
+    private int handles(int node, int[] ranges) {
+        int first = first(node);
+        switch (kind(node)) {
+            case Bop, ArraySelect, AssignArray, If, While, Block, Program -> {
+                ranges[0] = first;
+                ranges[1] = node;
+                return 2;
+            }
+            case MainClass -> {
+                ranges[0] = node - 1;
+                ranges[1] = node;
+                return 2;
+            }
+            case Call -> {
+                ranges[0] = first;
+                ranges[1] = first + 1;
+                ranges[2] = first + 2;
+                ranges[3] = node;
+                return 4;
+            }
+            case LazyMethodDecl -> {
+                ranges[0] = first;
+                ranges[1] = first + 1;
+                ranges[2] = first + 4;
+                ranges[3] = first + 4 + this.words[first + 3];
+                return 4;
+            }
+            case MethodDecl -> {
+                int formals = first + 4;
+                int locals = formals + this.words[formals - 1] + 1;
+                ranges[0] = first;
+                ranges[1] = first + 1;
+                ranges[2] = first + 2;
+                ranges[3] = first + 3;
+                ranges[4] = formals;
+                ranges[5] = locals - 1;
+                ranges[6] = locals;
+                ranges[7] = node;
+                return 8;
+            }
+            case ClassDecl -> {
+                ranges[0] = first + 3;
+                ranges[1] = node;
+                return 2;
+            }
+            default -> {
+                return 0;
+            }
+        }
+    }
+
+    // ///////////////////////////////////////////
+    // reading
+
+    public Kind kind(int node) {
+        return kinds[this.words[node] & 0xff];
+    }
+
+    private int payload(int node) {
+        return this.words[node] >>> 8;
+    }
+
+    // the first word of a node with a size in its header.
+    private int start(int node) {
+        return node - payload(node);
+    }
+
+    // the first word of any node.
+    private int first(int node) {
+        return switch (kind(node)) {
+            case Bop, ArraySelect, AssignArray, NumWide -> node - 1;
+            case If, MainClass -> node - 3;
+            case While -> node - 2;
+            case Call, Block, Program, MethodDecl, LazyMethodDecl, ClassDecl -> start(node);
+            default -> node;
+        };
+    }
+
+    // the symbol id naming the node, -1 if it is missing.
+    public int symbol(int node) {
+        return switch (kind(node)) {
+            case Id, NewObject, TypeClass, Assign, AssignArray, VarDecl ->
+                    payload(node) == none ? -1 : payload(node);
+            case Call -> this.words[start(node) + 1];
+            case MethodDecl, LazyMethodDecl -> this.words[start(node) + 1];
+            case ClassDecl -> this.words[start(node)];
+            case MainClass -> this.words[node - 3];
+            default -> throw new util.Error(kind(node));
+        };
+    }
+
+    // the name of the node, null if it is missing.
+    public String name(int node) {
+        int symbol = symbol(node);
+        return symbol < 0 ? null : this.symbols.name(symbol);
+    }
+
+    public int num(int node) {
+        return kind(node) == Kind.NumWide ? this.words[node - 1] : payload(node);
+    }
+
+    public String bop(int node) {
+        return bops[payload(node)];
+    }
+
+    public int left(int node) {
+        return this.words[node - 1];
+    }
+
+    public int right(int node) {
+        return node - 2;
+    }
+
+    // the operand of Length, NewIntArray, Not and Print, the right
+    // hand side of Assign and AssignArray, and the receiver of Call.
+    public int exp(int node) {
+        Kind kind = kind(node);
+        if (kind == Kind.AssignArray)
+            return node - 2;
+        if (kind == Kind.Call)
+            return this.words[start(node)];
+        return node - 1;
+    }
+
+    public int array(int node) {
+        return this.words[node - 1];
+    }
+
+    // the index of ArraySelect and AssignArray.
+    public int index(int node) {
+        return kind(node) == Kind.ArraySelect ? node - 2 : this.words[node - 1];
+    }
+
+    // the type of VarDecl, the result type of MethodDecl.
+    public int type(int node) {
+        return kind(node) == Kind.VarDecl ? node - 1 : this.words[start(node)];
+    }
+
+    public int cond(int node) {
+        return this.words[node - (kind(node) == Kind.If ? 3 : 2)];
+    }
+
+    public int thenn(int node) {
+        return this.words[node - 2];
+    }
+
+    public int elsee(int node) {
+        return this.words[node - 1];
+    }
+
+    public int body(int node) {
+        return this.words[node - 1];
+    }
+
+    public int args(int node) {
+        return payload(node) - 2;
+    }
+
+    public int arg(int node, int i) {
+        return this.words[start(node) + 2 + i];
+    }
+
+    // the statements of Block and MethodDecl.
+    public int stms(int node) {
+        return switch (kind(node)) {
+            case Block -> payload(node);
+            case LazyMethodDecl -> 0;
+            default -> payload(node) - 5 - formals(node) - locals(node);
+        };
+    }
+
+    public int stm(int node, int i) {
+        return switch (kind(node)) {
+            case Block -> this.words[start(node) + i];
+            case MethodDecl -> this.words[start(node) + 5 + formals(node) + locals(node) + i];
+            case MainClass -> this.words[node - 1];
+            default -> throw new util.Error(kind(node));
+        };
+    }
+
+    public int retExp(int node) {
+        return this.words[start(node) + 2];
+    }
+
+    public int formals(int node) {
+        return this.words[start(node) + 3];
+    }
+
+    public int formal(int node, int i) {
+        return this.words[start(node) + 4 + i];
+    }
+
+    public int locals(int node) {
+        return this.words[start(node) + 4 + formals(node)];
+    }
+
+    public int local(int node, int i) {
+        return this.words[start(node) + 5 + formals(node) + i];
+    }
+
+    // the tokens of the body of a LazyMethodDecl.
+    public int bodyFrom(int node) {
+        return this.words[node - 2];
+    }
+
+    public int bodyTo(int node) {
+        return this.words[node - 1];
+    }
+
+    public int extends_(int node) {
+        return this.words[start(node) + 1];
+    }
+
+    public int fields(int node) {
+        return this.words[start(node) + 2];
+    }
+
+    public int field(int node, int i) {
+        return this.words[start(node) + 3 + i];
+    }
+
+    public int methods(int node) {
+        return payload(node) - 3 - fields(node);
+    }
+
+    public int method(int node, int i) {
+        return this.words[start(node) + 3 + fields(node) + i];
+    }
+
+    public int mainClass(int node) {
+        return this.words[start(node)];
+    }
+
+    public int classes(int node) {
+        return payload(node) - 1;
+    }
+
+    public int clazz(int node, int i) {
+        return this.words[start(node) + 1 + i];
+    }
+
+    public int arg(int node) {
+        return this.words[node - 2];
+    }
+
+    // drop all the nodes, to build the tree again.
+    public void clear() {
+        this.size = 0;
+        this.nodes = 0;
+        this.root = -1;
+    }
+
+    // give back the room not in use, once the tree is complete.
+    public void trim() {
+        this.words = Arrays.copyOf(this.words, this.size);
+    }
+
+    // the root: the program, or, before it is complete, the last
+    // node added.
+    public int root() {
+        return this.root >= 0 ? this.root : this.size - 1;
+    }
+
+    // the number of words in use.
+    public int size() {
+        return this.size;
+    }
+
+    public int nodes() {
+        return this.nodes;
+    }
+
+    // the number of bytes taken by the words in use.
+    public long footprint() {
+        return (long) this.size * Integer.BYTES;
+    }
+
+    // ///////////////////////////////////////////
+    // writing and reading
+
+    // write the arena as it is: the number of words, of nodes, the
+    // root, then the words, as little-endian ints.
+    public void write(ByteList out) {
+        out.addInt(this.size);
+        out.addInt(this.nodes);
+        out.addInt(this.root);
+        out.addInts(this.words, 0, this.size);
+    }
+
+    // the arena written at the position of "in", which is moved past
+    // it; its names are those of "symbols".
+    public static AstArena read(SymbolTable symbols, ByteBuffer in) {
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        AstArena arena = new AstArena(symbols, 0);
+        arena.size = in.getInt();
+        arena.nodes = in.getInt();
+        arena.root = in.getInt();
+        arena.words = new int[arena.size];
+        in.asIntBuffer().get(arena.words, 0, arena.size);
+        in.position(in.position() + arena.size * Integer.BYTES);
+        return arena;
+    }
+
+    // ///////////////////////////////////////////
+    // conversion to an object tree
+
+    private String symbolName(int symbol) {
+        return symbol < 0 ? null : this.symbols.name(symbol);
+    }
+
+    public Type.T toType(int node) {
+        if (node < 0)
+            return null;
+        return switch (kind(node)) {
+            case TypeBoolean -> new Type.Boolean();
+            case TypeClass -> new Type.ClassType(name(node));
+            case TypeInt -> new Type.Int();
+            case TypeIntArray -> new Type.IntArray();
+            case TypeStringArray -> new Type.StringArray();
+            case TypeVoid -> new Type.Void();
+            default -> throw new util.Error(kind(node));
+        };
+    }
+
+    public Exp.T toExp(int node) {
+        return (Exp.T) toTree(node);
+    }
+
+    public Stm.T toStm(int node) {
+        return (Stm.T) toTree(node);
+    }
+
+    // the object tree of the statement or expression "node", or null
+    // if it is missing. As these may nest deeper than the thread stack
+    // allows, they are walked on explicit stacks, as the iterative
+    // parser does: "work" holds the nodes to expand, a missing one as
+    // -1, and, as -2 - node, those whose children are done; "trees"
+    // holds the objects made, the children of a node last.
+    private Object toTree(int node) {
+        IntList work = new IntList();
+        List<Object> trees = new ArrayList<>();
+        work.add(node);
+        while (work.size() > 0) {
+            node = work.pop();
+            if (node == -1) {
+                trees.add(null);
+                continue;
+            }
+            if (node >= 0) {
+                // then its children, first on top
+                work.add(-2 - node);
+                switch (kind(node)) {
+                    case ArraySelect -> {
+                        work.add(index(node));
+                        work.add(array(node));
+                    }
+                    case Bop -> {
+                        work.add(right(node));
+                        work.add(left(node));
+                    }
+                    case Call -> {
+                        for (int i = args(node) - 1; i >= 0; i--)
+                            work.add(arg(node, i));
+                        work.add(exp(node));
+                    }
+                    case Length, NewIntArray, Not, Assign, Print -> work.add(exp(node));
+                    case AssignArray -> {
+                        work.add(exp(node));
+                        work.add(index(node));
+                    }
+                    case Block -> {
+                        for (int i = stms(node) - 1; i >= 0; i--)
+                            work.add(stm(node, i));
+                    }
+                    case If -> {
+                        work.add(elsee(node));
+                        work.add(thenn(node));
+                        work.add(cond(node));
+                    }
+                    case While -> {
+                        work.add(body(node));
+                        work.add(cond(node));
+                    }
+                    default -> {
+                    }
+                }
+                continue;
+            }
+            node = -2 - node;
+            Object tree = switch (kind(node)) {
+                case ArraySelect -> {
+                    Exp.T index = (Exp.T) trees.removeLast();
+                    yield new Exp.ArraySelect((Exp.T) trees.removeLast(), index);
+                }
+                case Bop -> {
+                    Exp.T right = (Exp.T) trees.removeLast();
+                    yield new Exp.Bop((Exp.T) trees.removeLast(), bop(node), right);
+                }
+                case Call -> {
+                    List<Exp.T> args = new ArrayList<>();
+                    List<Object> done = trees.subList(trees.size() - args(node), trees.size());
+                    for (Object arg : done)
+                        args.add((Exp.T) arg);
+                    done.clear();
+                    yield new Exp.Call((Exp.T) trees.removeLast(), name(node), args);
+                }
+                case False -> new Exp.False();
+                case Id -> new Exp.Id(name(node));
+                case Length -> new Exp.Length((Exp.T) trees.removeLast());
+                case NewIntArray -> new Exp.NewIntArray((Exp.T) trees.removeLast());
+                case NewObject -> new Exp.NewObject(name(node));
+                case Not -> new Exp.Not((Exp.T) trees.removeLast());
+                case Num, NumWide -> new Exp.Num(num(node));
+                case This -> new Exp.This();
+                case True -> new Exp.True();
+                case Assign -> new Stm.Assign(name(node), (Exp.T) trees.removeLast());
+                case AssignArray -> {
+                    Exp.T exp = (Exp.T) trees.removeLast();
+                    yield new Stm.AssignArray(name(node), (Exp.T) trees.removeLast(), exp);
+                }
+                case Block -> {
+                    List<Stm.T> stms = new ArrayList<>();
+                    List<Object> done = trees.subList(trees.size() - stms(node), trees.size());
+                    for (Object stm : done)
+                        stms.add((Stm.T) stm);
+                    done.clear();
+                    yield new Stm.Block(stms);
+                }
+                case If -> {
+                    Stm.T elsee = (Stm.T) trees.removeLast();
+                    Stm.T thenn = (Stm.T) trees.removeLast();
+                    yield new Stm.If((Exp.T) trees.removeLast(), thenn, elsee);
+                }
+                case Print -> new Stm.Print((Exp.T) trees.removeLast());
+                case While -> {
+                    Stm.T body = (Stm.T) trees.removeLast();
+                    yield new Stm.While((Exp.T) trees.removeLast(), body);
+                }
+                default -> throw new util.Error(kind(node));
+            };
+            trees.add(tree);
+        }
+        return trees.getFirst();
+    }
+
+    public VarDecl.T toVarDecl(int node) {
+        return new VarDecl.Singleton(toType(type(node)), name(node));
+    }
+
+    public MethodDecl.T toMethodDecl(int node) {
+        List<VarDecl.T> formals = new ArrayList<>();
+        for (int i = 0; i < formals(node); i++)
+            formals.add(toVarDecl(formal(node, i)));
+        List<VarDecl.T> locals = new ArrayList<>();
+        for (int i = 0; i < locals(node); i++)
+            locals.add(toVarDecl(local(node, i)));
+        List<Stm.T> stms = new ArrayList<>();
+        for (int i = 0; i < stms(node); i++)
+            stms.add(toStm(stm(node, i)));
+        return new MethodDecl.Singleton(toType(type(node)), name(node), formals, locals, stms, toExp(retExp(node)));
+    }
+
+    public ClassDecl.T toClassDecl(int node) {
+        List<VarDecl.T> fields = new ArrayList<>();
+        for (int i = 0; i < fields(node); i++)
+            fields.add(toVarDecl(field(node, i)));
+        List<MethodDecl.T> methods = new ArrayList<>();
+        for (int i = 0; i < methods(node); i++)
+            methods.add(toMethodDecl(method(node, i)));
+        return new ClassDecl.Singleton(name(node), symbolName(extends_(node)), fields, methods);
+    }
+
+    public MainClass.T toMainClass(int node) {
+        return new MainClass.Singleton(name(node), symbolName(arg(node)), toStm(stm(node, 0)));
+    }
+
+    public Program.T toProgram(int node) {
+        List<ClassDecl.T> classes = new ArrayList<>();
+        for (int i = 0; i < classes(node); i++)
+            classes.add(toClassDecl(clazz(node, i)));
+        return new Program.Singleton(toMainClass(mainClass(node)), classes);
+    }
+}
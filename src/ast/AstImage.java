@@ -0,0 +1,593 @@
+package ast;
+
+import ast.AstArena.Kind;
+import lexer.SymbolTable;
+import util.ByteList;
+import util.ByteReader;
+import util.IntList;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// An AST image is an arena written out compactly, and read in place,
+// from a buffer that may be a mapped file: a node is found, and its
+// parts read, without decoding the rest. The parse cache keeps the
+// arena words instead (see "ParseCache"): at the start of a run,
+// "toArena()" costs more than the room it saves.
+// The nodes come in post-order, as in the arena, and a node is named
+// by the offset of its record in the image. A record is varints: a
+// header, "kind | payload << 5", then the fields of its kind. A field
+// naming a child holds how far back the child is, 0 for a missing
+// one; a symbol is held as its id + 1, 0 for a missing one. The names
+// are those of the file's string table (see "SymbolTable.write()").
+//
+// Payload, then fields, for each kind:
+//   False, This, True, Type*       -
+//   Id, NewObject, TypeClass       symbol
+//   Num                            value
+//   NumWide                        -, value
+//   Length, NewIntArray, Not,
+//   Print                          -, exp
+//   Assign                         symbol, exp
+//   VarDecl                        symbol, type
+//   Bop                            bop, left right
+//   ArraySelect                    -, array index
+//   AssignArray                    symbol, index exp
+//   If                             -, cond then else
+//   While                          -, cond body
+//   MainClass                      symbol, arg stm
+//   Call                           symbol, nargs exp args...
+//   Block                          nstms, stms...
+//   MethodDecl                     symbol, retType retExp nformals
+//                                  formals... nlocals locals...
+//                                  nstms stms...
+//   LazyMethodDecl                 symbol, retType 0 nformals
+//                                  formals... from to-from
+//   ClassDecl                      symbol, extends nfields fields...
+//                                  nmethods methods...
+//   Program                        nclasses, mainClass classes...
+// The image starts with the number of bytes of its records, the
+// offset of the root and the number of nodes, as little-endian ints.
+// A node takes about 3 bytes, against 6 in the arena.
+// An image is read by one thread at a time.
+public class AstImage {
+    private static final Kind[] kinds = Kind.values();
+    private static final String[] bops = {"&&", "<", "+", "-", "*"};
+
+    private final SymbolTable symbols;
+    private final ByteBuffer records;
+    private final int root;
+    private final int nodes;
+    // where the next varint to read starts
+    private int at;
+
+    // the image at the position of "in", which is moved past it.
+    public AstImage(SymbolTable symbols, ByteBuffer in) {
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        int length = in.getInt();
+        this.root = in.getInt();
+        this.nodes = in.getInt();
+        this.records = in.slice(in.position(), length);
+        in.position(in.position() + length);
+        this.symbols = symbols;
+    }
+
+    // ///////////////////////////////////////////
+    // writing
+
+    // the children of "node", in the order they are written: the
+    // implicit last child of a node in the arena comes last.
+    private static void children(AstArena arena, int node, IntList out) {
+        switch (arena.kind(node)) {
+            case Length, NewIntArray, Not, Print, Assign -> out.add(arena.exp(node));
+            case VarDecl -> out.add(arena.type(node));
+            case Bop -> {
+                out.add(arena.left(node));
+                out.add(arena.right(node));
+            }
+            case ArraySelect -> {
+                out.add(arena.array(node));
+                out.add(arena.index(node));
+            }
+            case AssignArray -> {
+                out.add(arena.index(node));
+                out.add(arena.exp(node));
+            }
+            case If -> {
+                out.add(arena.cond(node));
+                out.add(arena.thenn(node));
+                out.add(arena.elsee(node));
+            }
+            case While -> {
+                out.add(arena.cond(node));
+                out.add(arena.body(node));
+            }
+            case MainClass -> out.add(arena.stm(node, 0));
+            case Call -> {
+                out.add(arena.exp(node));
+                for (int i = 0; i < arena.args(node); i++)
+                    out.add(arena.arg(node, i));
+            }
+            case Block -> {
+                for (int i = 0; i < arena.stms(node); i++)
+                    out.add(arena.stm(node, i));
+            }
+            case MethodDecl, LazyMethodDecl -> {
+                out.add(arena.type(node));
+                for (int i = 0; i < arena.formals(node); i++)
+                    out.add(arena.formal(node, i));
+                if (arena.kind(node) == Kind.LazyMethodDecl)
+                    return;
+                for (int i = 0; i < arena.locals(node); i++)
+                    out.add(arena.local(node, i));
+                for (int i = 0; i < arena.stms(node); i++)
+                    out.add(arena.stm(node, i));
+                out.add(arena.retExp(node));
+            }
+            case ClassDecl -> {
+                for (int i = 0; i < arena.fields(node); i++)
+                    out.add(arena.field(node, i));
+                for (int i = 0; i < arena.methods(node); i++)
+                    out.add(arena.method(node, i));
+            }
+            case Program -> {
+                out.add(arena.mainClass(node));
+                for (int i = 0; i < arena.classes(node); i++)
+                    out.add(arena.clazz(node, i));
+            }
+            default -> {
+            }
+        }
+    }
+
+    // write the tree under the root of "arena" as an image; nodes
+    // not reachable from the root are left out.
+    public static void write(AstArena arena, ByteList out) {
+        ByteList records = new ByteList(arena.size() * 3);
+        // the offset of each node written, by its handle
+        int[] offsets = new int[arena.size()];
+        // a node, twice, then once more if its children are done
+        IntList stack = new IntList();
+        int nodes = 0;
+        stack.add(arena.root() << 1);
+        while (stack.size() > 0) {
+            int top = stack.pop();
+            int node = top >>> 1;
+            if ((top & 1) == 0) {
+                stack.add(top | 1);
+                IntList children = new IntList();
+                children(arena, node, children);
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    if (children.get(i) >= 0)
+                        stack.add(children.get(i) << 1);
+                }
+                continue;
+            }
+            offsets[node] = records.size();
+            writeRecord(arena, node, records, offsets);
+            nodes++;
+        }
+        out.addInt(records.size());
+        out.addInt(offsets[arena.root()]);
+        out.addInt(nodes);
+        out.addAll(records);
+    }
+
+    private static int bop(String bop) {
+        for (int i = 0; ; i++) {
+            if (bops[i].equals(bop))
+                return i;
+        }
+    }
+
+    private static void writeRecord(AstArena arena, int node, ByteList out, int[] offsets) {
+        int at = offsets[node];
+        Kind kind = arena.kind(node);
+        int payload = switch (kind) {
+            case Id, NewObject, TypeClass, Assign, VarDecl, AssignArray, MainClass, Call, MethodDecl,
+                 LazyMethodDecl, ClassDecl -> arena.symbol(node) + 1;
+            case Num -> arena.num(node);
+            case Bop -> bop(arena.bop(node));
+            case Block -> arena.stms(node);
+            case Program -> arena.classes(node);
+            default -> 0;
+        };
+        out.addVarint(kind.ordinal() | payload << 5);
+        IntList children = new IntList();
+        children(arena, node, children);
+        switch (kind) {
+            case NumWide -> out.addVarint(arena.num(node));
+            case MainClass -> {
+                out.addVarint(arena.arg(node) + 1);
+                writeRef(at, children.get(0), out, offsets);
+            }
+            case Call -> {
+                out.addVarint(arena.args(node));
+                for (int i = 0; i < children.size(); i++)
+                    writeRef(at, children.get(i), out, offsets);
+            }
+            case MethodDecl -> {
+                int formals = arena.formals(node);
+                int locals = arena.locals(node);
+                int stms = arena.stms(node);
+                writeRef(at, children.get(0), out, offsets);
+                writeRef(at, arena.retExp(node), out, offsets);
+                out.addVarint(formals);
+                for (int i = 0; i < formals; i++)
+                    writeRef(at, children.get(1 + i), out, offsets);
+                out.addVarint(locals);
+                for (int i = 0; i < locals; i++)
+                    writeRef(at, children.get(1 + formals + i), out, offsets);
+                out.addVarint(stms);
+                for (int i = 0; i < stms; i++)
+                    writeRef(at, children.get(1 + formals + locals + i), out, offsets);
+            }
+            case LazyMethodDecl -> {
+                writeRef(at, children.get(0), out, offsets);
+                out.addVarint(0);
+                out.addVarint(arena.formals(node));
+                for (int i = 1; i < children.size(); i++)
+                    writeRef(at, children.get(i), out, offsets);
+                out.addVarint(arena.bodyFrom(node));
+                out.addVarint(arena.bodyTo(node) - arena.bodyFrom(node));
+            }
+            case ClassDecl -> {
+                int fields = arena.fields(node);
+                out.addVarint(arena.extends_(node) + 1);
+                out.addVarint(fields);
+                for (int i = 0; i < fields; i++)
+                    writeRef(at, children.get(i), out, offsets);
+                out.addVarint(children.size() - fields);
+                for (int i = fields; i < children.size(); i++)
+                    writeRef(at, children.get(i), out, offsets);
+            }
+            default -> {
+                for (int i = 0; i < children.size(); i++)
+                    writeRef(at, children.get(i), out, offsets);
+            }
+        }
+    }
+
+    private static void writeRef(int at, int child, ByteList out, int[] offsets) {
+        out.addVarint(child < 0 ? 0 : at - offsets[child]);
+    }
+
+    // ///////////////////////////////////////////
+    // reading
+
+    private int next() {
+        int b = this.records.get(this.at++);
+        if (b >= 0)
+            return b;
+        int n = b & 0x7f;
+        for (int shift = 7; ; shift += 7) {
+            b = this.records.get(this.at++);
+            n |= (b & 0x7f) << shift;
+            if (b >= 0)
+                return n;
+        }
+    }
+
+    // skip "k" varints.
+    private void skip(int k) {
+        while (k > 0) {
+            if (this.records.get(this.at++) >= 0)
+                k--;
+        }
+    }
+
+    private int header(int node) {
+        this.at = node;
+        return next();
+    }
+
+    private int payload(int node) {
+        return header(node) >>> 5;
+    }
+
+    // the k-th field of "node".
+    private int word(int node, int k) {
+        header(node);
+        skip(k);
+        return next();
+    }
+
+    // the node the k-th field of "node" names, -1 if it is missing.
+    private int child(int node, int k) {
+        int back = word(node, k);
+        return back == 0 ? -1 : node - back;
+    }
+
+    public SymbolTable symbols() {
+        return this.symbols;
+    }
+
+    public int root() {
+        return this.root;
+    }
+
+    public int nodes() {
+        return this.nodes;
+    }
+
+    // the number of bytes of the records.
+    public int size() {
+        return this.records.limit();
+    }
+
+    public Kind kind(int node) {
+        return kinds[header(node) & 0x1f];
+    }
+
+    // the symbol id naming the node, -1 if it is missing.
+    public int symbol(int node) {
+        return payload(node) - 1;
+    }
+
+    // the name of the node, null if it is missing.
+    public String name(int node) {
+        int symbol = symbol(node);
+        return symbol < 0 ? null : this.symbols.name(symbol);
+    }
+
+    public int num(int node) {
+        return kind(node) == Kind.NumWide ? word(node, 0) : payload(node);
+    }
+
+    public String bop(int node) {
+        return bops[payload(node)];
+    }
+
+    public int left(int node) {
+        return child(node, 0);
+    }
+
+    public int right(int node) {
+        return child(node, 1);
+    }
+
+    // the operand of Length, NewIntArray, Not and Print, the right
+    // hand side of Assign and AssignArray, and the receiver of Call.
+    public int exp(int node) {
+        return switch (kind(node)) {
+            case AssignArray, Call -> child(node, 1);
+            default -> child(node, 0);
+        };
+    }
+
+    public int array(int node) {
+        return child(node, 0);
+    }
+
+    // the index of ArraySelect and AssignArray.
+    public int index(int node) {
+        return child(node, kind(node) == Kind.ArraySelect ? 1 : 0);
+    }
+
+    // the type of VarDecl, the result type of MethodDecl.
+    public int type(int node) {
+        return child(node, 0);
+    }
+
+    public int cond(int node) {
+        return child(node, 0);
+    }
+
+    public int thenn(int node) {
+        return child(node, 1);
+    }
+
+    public int elsee(int node) {
+        return child(node, 2);
+    }
+
+    public int body(int node) {
+        return child(node, 1);
+    }
+
+    public int args(int node) {
+        return word(node, 0);
+    }
+
+    public int arg(int node, int i) {
+        return child(node, 2 + i);
+    }
+
+    // the statements of Block and MethodDecl.
+    public int stms(int node) {
+        return switch (kind(node)) {
+            case Block -> payload(node);
+            case LazyMethodDecl -> 0;
+            default -> word(node, 4 + formals(node) + locals(node));
+        };
+    }
+
+    public int stm(int node, int i) {
+        return switch (kind(node)) {
+            case Block -> child(node, i);
+            case MethodDecl -> child(node, 5 + formals(node) + locals(node) + i);
+            case MainClass -> child(node, 1);
+            default -> throw new util.Error(kind(node));
+        };
+    }
+
+    public int retExp(int node) {
+        return child(node, 1);
+    }
+
+    public int formals(int node) {
+        return word(node, 2);
+    }
+
+    public int formal(int node, int i) {
+        return child(node, 3 + i);
+    }
+
+    public int locals(int node) {
+        if (kind(node) == Kind.LazyMethodDecl)
+            return 0;
+        return word(node, 3 + formals(node));
+    }
+
+    public int local(int node, int i) {
+        return child(node, 4 + formals(node) + i);
+    }
+
+    // the tokens of the body of a LazyMethodDecl.
+    public int bodyFrom(int node) {
+        return word(node, 3 + formals(node));
+    }
+
+    public int bodyTo(int node) {
+        int from = bodyFrom(node);
+        return from + next();
+    }
+
+    public int extends_(int node) {
+        return word(node, 0) - 1;
+    }
+
+    public int fields(int node) {
+        return word(node, 1);
+    }
+
+    public int field(int node, int i) {
+        return child(node, 2 + i);
+    }
+
+    public int methods(int node) {
+        return word(node, 2 + fields(node));
+    }
+
+    public int method(int node, int i) {
+        return child(node, 3 + fields(node) + i);
+    }
+
+    public int mainClass(int node) {
+        return child(node, 0);
+    }
+
+    public int classes(int node) {
+        return payload(node);
+    }
+
+    public int clazz(int node, int i) {
+        return child(node, 1 + i);
+    }
+
+    public int arg(int node) {
+        return word(node, 0) - 1;
+    }
+
+    // ///////////////////////////////////////////
+    // conversion to an arena
+
+    // the node at "back" before "node", as "handles" maps it.
+    private static int ref(int node, int back, int[] handles) {
+        return back == 0 ? -1 : handles[node - back];
+    }
+
+    // read "n" children of "node" into "list".
+    private static IntList refs(ByteReader in, int node, int n, int[] handles, IntList list) {
+        list.clear();
+        for (int i = 0; i < n; i++)
+            list.add(ref(node, in.varint(), handles));
+        return list;
+    }
+
+    // the whole tree as an arena, in one pass over a copy of the
+    // records.
+    public AstArena toArena() {
+        // about a word for each byte of the records
+        AstArena arena = new AstArena(this.symbols, this.records.limit());
+        ByteReader in = ByteReader.of(this.records.duplicate().position(0), this.records.limit());
+        // the handle in "arena" of each node, by its offset
+        int[] handles = new int[this.records.limit()];
+        // the builder copies the lists it is given
+        IntList[] lists = {new IntList(), new IntList(), new IntList()};
+        while (in.hasRemaining()) {
+            int node = in.position();
+            handles[node] = decode(in, node, arena, handles, lists);
+        }
+        arena.trim();
+        return arena;
+    }
+
+    // build the node whose record starts at "node" into "arena";
+    // return its handle. A method of its own, so that it is compiled
+    // early in a run.
+    private static int decode(ByteReader in, int node, AstArena arena, int[] handles, IntList[] lists) {
+        IntList first = lists[0];
+        IntList second = lists[1];
+        IntList third = lists[2];
+        int header = in.varint();
+        Kind kind = kinds[header & 0x1f];
+        int payload = header >>> 5;
+        return switch (kind) {
+            case False, This, True, TypeBoolean, TypeInt, TypeIntArray, TypeStringArray, TypeVoid ->
+                    arena.leaf(kind);
+            case Id, NewObject, TypeClass -> arena.named(kind, payload - 1);
+            case Num -> arena.intLiteral(payload);
+            case NumWide -> arena.intLiteral(in.varint());
+            case Length, NewIntArray, Not, Print -> arena.unary(kind, ref(node, in.varint(), handles));
+            case Assign -> arena.assign(payload - 1, ref(node, in.varint(), handles));
+            case VarDecl -> arena.varDecl(ref(node, in.varint(), handles), payload - 1);
+            case Bop -> {
+                int left = ref(node, in.varint(), handles);
+                yield arena.bop(left, bops[payload], ref(node, in.varint(), handles));
+            }
+            case ArraySelect -> {
+                int array = ref(node, in.varint(), handles);
+                yield arena.arraySelect(array, ref(node, in.varint(), handles));
+            }
+            case AssignArray -> {
+                int index = ref(node, in.varint(), handles);
+                yield arena.assignArray(payload - 1, index, ref(node, in.varint(), handles));
+            }
+            case If -> {
+                int cond = ref(node, in.varint(), handles);
+                int thenn = ref(node, in.varint(), handles);
+                yield arena.ifStm(cond, thenn, ref(node, in.varint(), handles));
+            }
+            case While -> {
+                int cond = ref(node, in.varint(), handles);
+                yield arena.whileStm(cond, ref(node, in.varint(), handles));
+            }
+            case MainClass -> {
+                int arg = in.varint() - 1;
+                yield arena.mainClass(payload - 1, arg, ref(node, in.varint(), handles));
+            }
+            case Call -> {
+                int n = in.varint();
+                int exp = ref(node, in.varint(), handles);
+                yield arena.call(exp, payload - 1, refs(in, node, n, handles, first));
+            }
+            case Block -> arena.block(refs(in, node, payload, handles, first));
+            case MethodDecl -> {
+                int retType = ref(node, in.varint(), handles);
+                int retExp = ref(node, in.varint(), handles);
+                IntList formals = refs(in, node, in.varint(), handles, first);
+                IntList locals = refs(in, node, in.varint(), handles, second);
+                IntList stms = refs(in, node, in.varint(), handles, third);
+                yield arena.methodDecl(retType, payload - 1, formals, locals, stms, retExp);
+            }
+            case LazyMethodDecl -> {
+                int retType = ref(node, in.varint(), handles);
+                in.varint();
+                IntList formals = refs(in, node, in.varint(), handles, first);
+                int from = in.varint();
+                yield arena.lazyMethodDecl(retType, payload - 1, formals, from, from + in.varint());
+            }
+            case ClassDecl -> {
+                int extends_ = in.varint() - 1;
+                IntList fields = refs(in, node, in.varint(), handles, first);
+                IntList methods = refs(in, node, in.varint(), handles, second);
+                yield arena.classDecl(payload - 1, extends_, fields, methods);
+            }
+            case Program -> {
+                int mainClass = ref(node, in.varint(), handles);
+                yield arena.program(mainClass, refs(in, node, payload, handles, first));
+            }
+        };
+    }
+}
@@ -0,0 +1,219 @@
+package ast;
+
+import ast.Ast.ClassDecl;
+import ast.Ast.Exp;
+import ast.Ast.MainClass;
+import ast.Ast.MethodDecl;
+import ast.Ast.Program;
+import ast.Ast.Stm;
+import ast.Ast.Type;
+import ast.Ast.VarDecl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Count the nodes of an abstract syntax tree, by kind, and estimate
+// the heap they take, for "-ast-stats".
+// The estimate assumes a 64-bit VM with compressed references: an
+// object is a 12-byte header plus 4 bytes for each field, rounded up
+// to 8 bytes. A list is an "ArrayList" with its backing array grown
+// the way "ArrayList.add()" grows it. Identifier strings are shared
+// with the symbol table, so they are not counted.
+public class NodeCount {
+    private final Map<String, Long> counts = new TreeMap<>();
+    private final Map<String, Long> bytes = new TreeMap<>();
+
+    private static long align(long n) {
+        return (n + 7) & ~7L;
+    }
+
+    private void node(Record node) {
+        String name = STR."\{node.getClass().getEnclosingClass().getSimpleName()}.\{node.getClass().getSimpleName()}";
+        long size = align(12 + 4L * node.getClass().getRecordComponents().length);
+        counts.merge(name, 1L, Long::sum);
+        bytes.merge(name, size, Long::sum);
+    }
+
+    private void list(List<?> list) {
+        if (!(list instanceof ArrayList))
+            return;
+        long size = align(24);
+        if (!list.isEmpty()) {
+            long capacity = 10;
+            while (capacity < list.size())
+                capacity += capacity >> 1;
+            size += align(16 + 4 * capacity);
+        }
+        counts.merge("(list)", 1L, Long::sum);
+        bytes.merge("(list)", size, Long::sum);
+    }
+
+    // ///////////////////////////////////////////
+    // type
+    private void countType(Type.T type) {
+        if (type instanceof Record r)
+            node(r);
+    }
+
+    // ///////////////////////////////////////////
+    // variable declaration
+    private void countVarDecls(List<VarDecl.T> decls) {
+        list(decls);
+        for (VarDecl.T decl : decls) {
+            switch (decl) {
+                case VarDecl.Singleton(Type.T type, String _) -> {
+                    node((Record) decl);
+                    countType(type);
+                }
+            }
+        }
+    }
+
+    // ///////////////////////////////////////////
+    // statements and expressions: as these may nest deeper than the
+    // thread stack allows, they are walked on an explicit stack, in
+    // no particular order, as counts do not depend on it.
+    private static void push(List<Object> stack, Object node) {
+        if (node != null)
+            stack.add(node);
+    }
+
+    private void countExp(Exp.T exp) {
+        countTree(exp);
+    }
+
+    private void countStm(Stm.T stm) {
+        countTree(stm);
+    }
+
+    private void countTree(Object root) {
+        List<Object> stack = new ArrayList<>();
+        push(stack, root);
+        while (!stack.isEmpty()) {
+            Object node = stack.removeLast();
+            node((Record) node);
+            if (node instanceof Exp.T exp) {
+                switch (exp) {
+                    case Exp.ArraySelect(Exp.T array, Exp.T index) -> {
+                        push(stack, array);
+                        push(stack, index);
+                    }
+                    case Exp.Bop(Exp.T left, String _, Exp.T right) -> {
+                        push(stack, left);
+                        push(stack, right);
+                    }
+                    case Exp.Call(Exp.T e, String _, List<Exp.T> args) -> {
+                        push(stack, e);
+                        list(args);
+                        for (Exp.T arg : args)
+                            push(stack, arg);
+                    }
+                    case Exp.Length(Exp.T array) -> push(stack, array);
+                    case Exp.NewIntArray(Exp.T e) -> push(stack, e);
+                    case Exp.Not(Exp.T e) -> push(stack, e);
+                    case Exp.False _, Exp.Id _, Exp.NewObject _, Exp.Num _, Exp.This _, Exp.True _ -> {
+                    }
+                }
+                continue;
+            }
+            switch ((Stm.T) node) {
+                case Stm.Assign(String _, Exp.T e) -> push(stack, e);
+                case Stm.AssignArray(String _, Exp.T index, Exp.T e) -> {
+                    push(stack, index);
+                    push(stack, e);
+                }
+                case Stm.Block(List<Stm.T> stms) -> {
+                    list(stms);
+                    for (Stm.T stm : stms)
+                        push(stack, stm);
+                }
+                case Stm.If(Exp.T cond, Stm.T thenn, Stm.T elsee) -> {
+                    push(stack, cond);
+                    push(stack, thenn);
+                    push(stack, elsee);
+                }
+                case Stm.Print(Exp.T e) -> push(stack, e);
+                case Stm.While(Exp.T cond, Stm.T body) -> {
+                    push(stack, cond);
+                    push(stack, body);
+                }
+            }
+        }
+    }
+
+    private void countStms(List<Stm.T> stms) {
+        list(stms);
+        for (Stm.T stm : stms)
+            countStm(stm);
+    }
+
+    // ///////////////////////////////////////////
+    // program
+    public void countProgram(Program.T program) {
+        switch (program) {
+            case Program.Singleton(MainClass.T mainClass, List<ClassDecl.T> classes) -> {
+                node((Record) program);
+                switch (mainClass) {
+                    case MainClass.Singleton(String _, String _, Stm.T stm) -> {
+                        node((Record) mainClass);
+                        countStm(stm);
+                    }
+                }
+                list(classes);
+                for (ClassDecl.T c : classes) {
+                    switch (c) {
+                        case ClassDecl.Singleton(String _, String _, List<VarDecl.T> fields, List<MethodDecl.T> methods) -> {
+                            node((Record) c);
+                            countVarDecls(fields);
+                            list(methods);
+                            for (MethodDecl.T m : methods)
+                                countMethod(m);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void countMethod(MethodDecl.T method) {
+        switch (method) {
+            case MethodDecl.Singleton(
+                    Type.T retType,
+                    String _,
+                    List<VarDecl.T> formals,
+                    List<VarDecl.T> locals,
+                    List<Stm.T> stms,
+                    Exp.T retExp
+            ) -> {
+                node((Record) method);
+                countType(retType);
+                countVarDecls(formals);
+                countVarDecls(locals);
+                countStms(stms);
+                countExp(retExp);
+            }
+        }
+    }
+
+    // the number of nodes counted, lists excluded.
+    public long nodes() {
+        return counts.entrySet().stream()
+                .filter(e -> !e.getKey().equals("(list)"))
+                .mapToLong(Map.Entry::getValue).sum();
+    }
+
+    // the estimated size of everything counted, in bytes.
+    public long bytes() {
+        return bytes.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public void report() {
+        System.out.println("AST nodes:");
+        for (String name : counts.keySet()) {
+            System.out.println(String.format("  %-20s %10d %12d B", name, counts.get(name), bytes.get(name)));
+        }
+        System.out.println(String.format("  %-20s %10d %12d B", "total nodes", nodes(), bytes()));
+    }
+}
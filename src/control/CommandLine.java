@@ -1,5 +1,6 @@
 package control;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -26,21 +27,148 @@ public class CommandLine {
     public void error(String message) {
         System.err.println(STR."Error: \{message}");
         usage();
-        System.exit(1);
+        throw new Exit(1);
     }
 
     public CommandLine() {
         this.args = List.of(
                 new Arg("dump",
-                        "{token}",
-                        "dump tokens from lexical analysis",
+                        "{token|token-binary}",
+                        "dump tokens from lexical analysis, as text or binary",
                         Kind.String,
                         (Object x) -> {
                             switch ((String) x) {
-                                case "token" -> Control.Lexer.dumpToken = true;
+                                case "token" -> {
+                                    Control.Lexer.dumpToken = true;
+                                    Control.Lexer.dumpFormat = Control.Lexer.DumpFormat.Text;
+                                }
+                                case "token-binary" -> {
+                                    Control.Lexer.dumpToken = true;
+                                    Control.Lexer.dumpFormat = Control.Lexer.DumpFormat.Binary;
+                                }
                                 default -> error(STR."unknown argument: \{x}");
                             }
                         }),
+                new Arg("dump-to",
+                        "<file>",
+                        "write dumps to <file> instead of the standard output",
+                        Kind.String,
+                        (Object x) -> Control.Lexer.dumpFile = (String) x),
+                new Arg("lexer",
+                        "{hand|table|parallel}",
+                        "which lexer to use (default: hand)",
+                        Kind.String,
+                        (Object x) -> {
+                            switch ((String) x) {
+                                case "hand" -> Control.Lexer.engine = Control.Lexer.Engine.Hand;
+                                case "table" -> Control.Lexer.engine = Control.Lexer.Engine.Table;
+                                case "parallel" -> Control.Lexer.engine = Control.Lexer.Engine.Parallel;
+                                default -> error(STR."unknown argument: \{x}");
+                            }
+                        }),
+                new Arg("parser",
+                        "{recursive|iterative}",
+                        "how to parse nested code (default: recursive)",
+                        Kind.String,
+                        (Object x) -> {
+                            switch ((String) x) {
+                                case "recursive" -> Control.Parser.engine = Control.Parser.Engine.Recursive;
+                                case "iterative" -> Control.Parser.engine = Control.Parser.Engine.Iterative;
+                                default -> error(STR."unknown argument: \{x}");
+                            }
+                        }),
+                new Arg("max-errors",
+                        "<n>",
+                        "stop parsing after <n> syntax errors (default: 100)",
+                        Kind.Int,
+                        (Object x) -> {
+                            if ((Integer) x < 1)
+                                error("max-errors requires a positive integer");
+                            Control.Parser.maxErrors = (Integer) x;
+                        }),
+                new Arg("parallel-classes",
+                        null,
+                        "parse the class declarations in parallel",
+                        Kind.Empty,
+                        (_) -> Control.Parser.parallelClasses = true),
+                new Arg("bodies",
+                        "{eager|lazy|parallel}",
+                        "when to parse method bodies (default: eager)",
+                        Kind.String,
+                        (Object x) -> {
+                            switch ((String) x) {
+                                case "eager" -> Control.Parser.bodies = Control.Parser.Bodies.Eager;
+                                case "lazy" -> Control.Parser.bodies = Control.Parser.Bodies.Lazy;
+                                case "parallel" -> Control.Parser.bodies = Control.Parser.Bodies.Parallel;
+                                default -> error(STR."unknown argument: \{x}");
+                            }
+                        }),
+                new Arg("cache",
+                        "<dir>",
+                        "load unchanged files from a parse cache in <dir>",
+                        Kind.String,
+                        (Object x) -> Control.Parser.cacheDir = (String) x),
+                new Arg("cache-size",
+                        "<MB>",
+                        "keep the parse cache under <MB> megabytes (default: 256)",
+                        Kind.Int,
+                        (Object x) -> {
+                            if ((Integer) x < 1)
+                                error("cache-size requires a positive integer");
+                            Control.Parser.cacheSize = (long) (Integer) x << 20;
+                        }),
+                new Arg("ast",
+                        "{arena|tree}",
+                        "how to hold the AST (default: arena)",
+                        Kind.String,
+                        (Object x) -> {
+                            switch ((String) x) {
+                                case "tree" -> Control.Parser.ast = Control.Parser.Ast.Tree;
+                                case "arena" -> Control.Parser.ast = Control.Parser.Ast.Arena;
+                                default -> error(STR."unknown argument: \{x}");
+                            }
+                        }),
+                new Arg("ast-stats",
+                        null,
+                        "count the AST nodes and estimate their size",
+                        Kind.Empty,
+                        (_) -> Control.Parser.astStats = true),
+                new Arg("stats",
+                        "{table|json}",
+                        "print the wall time, CPU time and memory of each phase",
+                        Kind.String,
+                        (Object x) -> {
+                            switch ((String) x) {
+                                case "table" -> {
+                                    Control.Driver.stats = true;
+                                    Control.Driver.statsFormat = Control.Driver.StatsFormat.Table;
+                                }
+                                case "json" -> {
+                                    Control.Driver.stats = true;
+                                    Control.Driver.statsFormat = Control.Driver.StatsFormat.Json;
+                                }
+                                default -> error(STR."unknown argument: \{x}");
+                            }
+                        }),
+                new Arg("j",
+                        "<n>",
+                        "compile up to <n> files at once (default: the number of processors)",
+                        Kind.Int,
+                        (Object x) -> {
+                            if ((Integer) x < 1)
+                                error("j requires a positive integer");
+                            Control.Driver.jobs = (Integer) x;
+                        }),
+                new Arg("server",
+                        "<socket>",
+                        "stay up, compiling for the clients of <socket>",
+                        Kind.String,
+                        (Object x) -> Control.Driver.server = (String) x),
+                new Arg("client",
+                        "<socket>",
+                        "have the server at <socket> compile, with the other options",
+                        Kind.String,
+                        (Object x) -> Control.Driver.client = (String) x),
                 new Arg(
                         "help",
                         null,
@@ -48,26 +176,21 @@ public class CommandLine {
                         Kind.Empty,
                         (_) -> {
                             usage();
-                            System.exit(1);
+                            throw new Exit(1);
                         })
         );
     }
 
-    // scan the command line arguments, return the file name
-    // in it; return null if there is no file name.
-    // The file name should be unique.
-    public String scan(String[] cmdLineArgs) {
-        String filename = null;
+    // scan the command line arguments, return the files and
+    // directories in it, in order; the list is empty if there is none.
+    public List<String> scan(String[] cmdLineArgs) {
+        List<String> filenames = new ArrayList<>();
 
         for (int i = 0; i < cmdLineArgs.length; i++) {
             String cmdArg = cmdLineArgs[i];
             if (!cmdArg.startsWith("-")) {
-                if (null != filename) {
-                    error("compile only one Java file one time");
-                } else {
-                    filename = cmdArg;
-                    continue;
-                }
+                filenames.add(cmdArg);
+                continue;
             }
 
             // to crawl through arguments:
@@ -120,7 +243,7 @@ public class CommandLine {
                 error(STR."invalid option: \{cmdLineArgs[i]}");
             }
         }
-        return filename;
+        return filenames;
     }
 
     private void outputSpace(int n) {
@@ -161,7 +284,7 @@ public class CommandLine {
         final int startYear = 2013;
         System.out.println(STR."""
                 The Tiger compiler. Copyright (C) \{startYear}-, SSE of USTC.
-                Usage: java Tiger [options] <filename>
+                Usage: java Tiger [options] <filename|directory>...
                 """);
         output();
     }
@@ -1,8 +1,88 @@
 package control;
 
 public class Control {
+    // the driver
+    public static class Driver {
+        // how many files are compiled at once
+        public static int jobs = Runtime.getRuntime().availableProcessors();
+        // the Unix domain socket to serve requests on, or to send the
+        // command line to; null for neither
+        public static String server = null;
+        public static String client = null;
+        // print the time and memory each phase takes, for "-stats"
+        public enum StatsFormat {
+            Json,
+            Table,
+        }
+
+        public static boolean stats = false;
+        public static StatsFormat statsFormat = StatsFormat.Table;
+    }
+
     // the lexer
     public static class Lexer {
         public static boolean dumpToken = false;
+        // how "-dump token" writes the tokens, and where to;
+        // null stands for the standard output
+        public enum DumpFormat {
+            Binary,
+            Text,
+        }
+
+        public static DumpFormat dumpFormat = DumpFormat.Text;
+        public static String dumpFile = null;
+        // which lexer to use
+        public enum Engine {
+            Hand,
+            Parallel,
+            Table,
+        }
+
+        public static Engine engine = Engine.Hand;
+    }
+
+    // the parser
+    public static class Parser {
+        // report the number and estimated size of the AST nodes
+        public static boolean astStats = false;
+        // how the AST is held: packed into an arena, or as objects
+        public enum Ast {
+            Arena,
+            Tree,
+        }
+
+        public static Ast ast = Ast.Arena;
+        // how nested statements and expressions are parsed: by recursion,
+        // or on an explicit stack in the heap, so that the nesting depth
+        // is bounded by memory instead of by the thread stack
+        public enum Engine {
+            Iterative,
+            Recursive,
+        }
+
+        public static Engine engine = Engine.Recursive;
+        // the parser stops reporting syntax errors after this many,
+        // and skips the rest of the input
+        public static int maxErrors = 100;
+        // parse the class declarations on a fork/join pool
+        public static boolean parallelClasses = false;
+        // how method bodies are parsed: along with the rest, or skipped
+        // and parsed only on demand (in bulk on a fork/join pool, for
+        // "Parallel"); once all are parsed, the diagnostics are those
+        // of "Eager"
+        public enum Bodies {
+            Eager,
+            Lazy,
+            Parallel,
+        }
+
+        public static Bodies bodies = Bodies.Eager;
+        // keep the tokens and the tree of each file parsed without an
+        // error in this directory, and load them from there while the
+        // file is unchanged; null for no cache
+        public static String cacheDir = null;
+        // the size the cache is kept under, in bytes, by dropping the
+        // entries used least recently
+        public static long cacheSize = 256L << 20;
     }
 }
\ No newline at end of file
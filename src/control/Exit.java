@@ -0,0 +1,19 @@
+package control;
+
+// Thrown to end a run with an exit status, instead of calling
+// "System.exit()", so that a server running the compiler for a
+// client goes on. "Tiger.main()" exits with the status.
+public class Exit extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public Exit(int status) {
+        super(null, null, false, false);
+        this.status = status;
+    }
+
+    public int status() {
+        return this.status;
+    }
+}
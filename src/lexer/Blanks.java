@@ -0,0 +1,76 @@
+package lexer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+// Skipping runs of blanks and the rest of a comment line, eight
+// source bytes at a time: each step loads one long and tests all
+// its bytes at once with bit tricks (SWAR, "SIMD within a register").
+// The last few bytes of the source are handled one by one.
+class Blanks {
+    private static final VarHandle longs =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long ones = 0x0101010101010101L;
+    private static final long lows = 0x7f7f7f7f7f7f7f7fL;
+    private static final long spaces = ' ' * ones;
+    private static final long tabs = '\t' * ones;
+    private static final long newlines = '\n' * ones;
+    private static final long returns = '\r' * ones;
+
+    // the high bit of each byte of the result is set if, and only if,
+    // that byte of "x" is zero.
+    private static long zeros(long x) {
+        return ~(((x & lows) + lows) | x | lows);
+    }
+
+    // skip the spaces and tabs from "position" on, up to "limit".
+    // Return the index of the first other byte in the high half, and
+    // the number of tabs skipped in the low half, as a tab takes more
+    // than one column.
+    static long skipBlanks(byte[] s, int position, int limit) {
+        int p = position;
+        int tabCount = 0;
+        int n = limit;
+        // most runs are a single space between two tokens
+        if (p >= n || (s[p] != ' ' && s[p] != '\t'))
+            return (long) p << 32;
+        while (p + Long.BYTES <= n) {
+            long w = (long) longs.get(s, p);
+            long tab = zeros(w ^ tabs);
+            long others = ~(zeros(w ^ spaces) | tab) & ~lows;
+            if (others == 0) {
+                tabCount += Long.bitCount(tab);
+                p += Long.BYTES;
+                continue;
+            }
+            int k = Long.numberOfTrailingZeros(others) >>> 3;
+            tabCount += Long.bitCount(tab & ((1L << (k << 3)) - 1));
+            return ((long) (p + k) << 32) | tabCount;
+        }
+        while (p < n && (s[p] == ' ' || s[p] == '\t')) {
+            if (s[p] == '\t')
+                tabCount++;
+            p++;
+        }
+        return ((long) p << 32) | tabCount;
+    }
+
+    // the index of the first '\n' or '\r' from "position" on,
+    // or "limit" if there is none before it.
+    static int lineEnd(byte[] s, int position, int limit) {
+        int p = position;
+        int n = limit;
+        while (p + Long.BYTES <= n) {
+            long w = (long) longs.get(s, p);
+            long breaks = zeros(w ^ newlines) | zeros(w ^ returns);
+            if (breaks != 0)
+                return p + (Long.numberOfTrailingZeros(breaks) >>> 3);
+            p += Long.BYTES;
+        }
+        while (p < n && s[p] != '\n' && s[p] != '\r')
+            p++;
+        return p;
+    }
+}
@@ -2,74 +2,241 @@ package lexer;
 
 import util.Todo;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 import static control.Control.Lexer.dumpToken;
 
-public record Lexer(String fileName,
-                    InputStream fileStream) {
-
-    private static final HashMap<String, Token.Kind> keywords;
-    private static int lastChar = -2;
-    private static int rowNum = 1;
-    private static int colNum = 0;
-    private static StringBuilder currentLine = new StringBuilder();
-    private static Token lastToken = null;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("true", Token.Kind.TRUE);
-        keywords.put("false", Token.Kind.FALSE);
-        keywords.put("this", Token.Kind.THIS);
-        keywords.put("class", Token.Kind.CLASS);
-        keywords.put("int", Token.Kind.INT);
-        keywords.put("boolean", Token.Kind.BOOLEAN);
-        keywords.put("new", Token.Kind.NEW);
-        keywords.put("public", Token.Kind.PUBLIC);
-        keywords.put("static", Token.Kind.STATIC);
-        keywords.put("void", Token.Kind.VOID);
-        keywords.put("String", Token.Kind.STRING);
-        keywords.put("if", Token.Kind.IF);
-        keywords.put("else", Token.Kind.ELSE);
-        keywords.put("while", Token.Kind.WHILE);
-        keywords.put("return", Token.Kind.RETURN);
-        keywords.put("length", Token.Kind.LENGTH);
-        keywords.put("extends", Token.Kind.EXTENDS);
+// The lexer scans the whole source held in one byte array,
+// instead of pulling the characters one by one from a stream.
+// All the scanning state belongs to the instance, so that
+// several lexers can run at the same time.
+public class Lexer {
+
+    private final String fileName;
+    private final byte[] source;
+    // identifiers are interned here
+    private final SymbolTable symbols;
+    private int rowNum = 1;
+    private int colNum = 0;
+    // where each line starts, filled in while scanning
+    private final LineIndex lines;
+    // index of the next byte to be read from "source"
+    private int position;
+    // the lexer stops at this index, as if the source ended there
+    private final int limit;
+    // the token just recognized by "nextToken0()"
+    private int tokenOffset;
+    private int tokenLength;
+    private int tokenRow;
+    private int tokenCol;
+    private int tokenValue;
+    // where tokens go for "-dump token", opened on the first one
+    private TokenDump dump = null;
+    // report too large integer literals as they are scanned?
+    private boolean report = true;
+    // the number reported
+    private int errors = 0;
+
+    // scan only source[start, end), which must start at the beginning
+    // of a line; rows are counted from 1 at "start".
+    public Lexer(String fileName, byte[] source, SymbolTable symbols, int start, int end) {
+        this.fileName = fileName;
+        this.source = source;
+        this.symbols = symbols;
+        this.lines = new LineIndex(source, start);
+        this.position = start;
+        this.limit = end;
     }
 
-    private String GetWord(int c) throws Exception {
-        StringBuilder id = new StringBuilder();
-        while (c != ' ' && c != '\t' && c != '\n' && c != '\r' && c != -1) {
-            if (!Character.isLetterOrDigit(c) && c != '_') {
-                lastChar = c;
-                break;
+    public Lexer(String fileName, byte[] source, SymbolTable symbols) {
+        this(fileName, source, symbols, 0, source.length);
+    }
+
+    public Lexer(String fileName, byte[] source) {
+        this(fileName, source, new SymbolTable());
+    }
+
+    public Lexer(String fileName, InputStream fileStream) throws IOException {
+        this(fileName, fileStream.readAllBytes());
+    }
+
+    // leave the reporting of too large integer literals to the caller,
+    // who finds them by their value, -1.
+    Lexer quiet() {
+        this.report = false;
+        return this;
+    }
+
+    // map the file into memory and copy it out in one bulk transfer.
+    public static byte[] readSource(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(STR."file too large: \{fileName}");
+            byte[] source = new byte[(int) size];
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, size).get(source);
+            return source;
+        }
+    }
+
+    // does the word at "offset" spell the keyword "k"?
+    // The caller has already checked the length.
+    private static boolean is(byte[] s, int offset, String k) {
+        for (int i = 0; i < k.length(); i++) {
+            if (s[offset + i] != k.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    // recognize the keywords straight from the source bytes, by
+    // dispatching on the length and then on the first character,
+    // so that no string is built to look a word up.
+    // Return ID if the word is not a keyword.
+    static Token.Kind keyword(byte[] s, int offset, int length) {
+        switch (length) {
+            case 2 -> {
+                if (is(s, offset, "if")) return Token.Kind.IF;
+            }
+            case 3 -> {
+                switch (s[offset]) {
+                    case 'i' -> {
+                        if (is(s, offset, "int")) return Token.Kind.INT;
+                    }
+                    case 'n' -> {
+                        if (is(s, offset, "new")) return Token.Kind.NEW;
+                    }
+                }
+            }
+            case 4 -> {
+                switch (s[offset]) {
+                    case 't' -> {
+                        if (is(s, offset, "true")) return Token.Kind.TRUE;
+                        if (is(s, offset, "this")) return Token.Kind.THIS;
+                    }
+                    case 'v' -> {
+                        if (is(s, offset, "void")) return Token.Kind.VOID;
+                    }
+                    case 'e' -> {
+                        if (is(s, offset, "else")) return Token.Kind.ELSE;
+                    }
+                }
+            }
+            case 5 -> {
+                switch (s[offset]) {
+                    case 'f' -> {
+                        if (is(s, offset, "false")) return Token.Kind.FALSE;
+                    }
+                    case 'c' -> {
+                        if (is(s, offset, "class")) return Token.Kind.CLASS;
+                    }
+                    case 'w' -> {
+                        if (is(s, offset, "while")) return Token.Kind.WHILE;
+                    }
+                }
+            }
+            case 6 -> {
+                switch (s[offset]) {
+                    case 'p' -> {
+                        if (is(s, offset, "public")) return Token.Kind.PUBLIC;
+                    }
+                    case 's' -> {
+                        if (is(s, offset, "static")) return Token.Kind.STATIC;
+                    }
+                    case 'S' -> {
+                        if (is(s, offset, "String")) return Token.Kind.STRING;
+                    }
+                    case 'r' -> {
+                        if (is(s, offset, "return")) return Token.Kind.RETURN;
+                    }
+                    case 'l' -> {
+                        if (is(s, offset, "length")) return Token.Kind.LENGTH;
+                    }
+                }
+            }
+            case 7 -> {
+                switch (s[offset]) {
+                    case 'b' -> {
+                        if (is(s, offset, "boolean")) return Token.Kind.BOOLEAN;
+                    }
+                    case 'e' -> {
+                        if (is(s, offset, "extends")) return Token.Kind.EXTENDS;
+                    }
+                }
             }
-            id.append((char) c);
-            c = this.fileStream.read();
-            currentLine.append((char) c);
-            colNum++;
         }
-        return id.toString();
+        return Token.Kind.ID;
     }
 
-    // When called, return the next token (refer to the code "Token.java")
-    // from the input stream.
-    // Return TOKEN_EOF when reaching the end of the input stream.
-    private Token nextToken0() throws Exception {
-        int c;
-        if (lastChar != -2) {
-            c = lastChar;
-            lastChar = -2;
-        } else {
-            c = this.fileStream.read();
+    public String fileName() {
+        return this.fileName;
+    }
+
+    public byte[] source() {
+        return this.source;
+    }
+
+    public SymbolTable symbols() {
+        return this.symbols;
+    }
+
+    // read the next byte, or -1 at the end of the source.
+    private int read() {
+        if (position < this.limit)
+            return this.source[position++] & 0xff;
+        return -1;
+    }
+
+    // push back the character "c" just read, so that it is read again.
+    private void unread(int c) {
+        if (c != -1)
+            position--;
+        colNum--;
+    }
+
+    // skip over a word starting with "c", and return its length.
+    // The character ending the word is pushed back.
+    private int GetWord(int c) {
+        int length = 0;
+        while (Character.isLetterOrDigit(c) || c == '_') {
+            length++;
+            c = this.read();
             colNum++;
         }
+        unread(c);
+        return length;
+    }
 
-        currentLine.append((char) c);
+    // record the extent and position of the token just recognized.
+    private Token.Kind token(Token.Kind kind, int offset, int length, int row, int col) {
+        this.tokenOffset = offset;
+        this.tokenLength = length;
+        this.tokenRow = row;
+        this.tokenCol = col;
+        this.tokenValue = -1;
+        return kind;
+    }
+
+    // a one-character token, just read at "position - 1".
+    private Token.Kind token(Token.Kind kind) {
+        return token(kind, position - 1, 1, rowNum, colNum);
+    }
+
+    // When called, return the kind of the next token (refer to the code
+    // "Token.java") from the input stream; its extent and position are
+    // left in the "token*" fields.
+    // Return TOKEN_EOF when reaching the end of the input stream.
+    private Token.Kind nextToken0() {
+        int c = this.read();
+        colNum++;
 
         // skip all kinds of "blanks"
-        // think carefully about how to set up "colNum" and "rowNum" correctly?
+        // a tab counts for four columns; "\r\n", "\n" and a lone "\r"
+        // all end a line.
         while (' ' == c || '\t' == c || '\n' == c || '\r' == c || c == '/') {
             switch(c) {
                 case ' ' -> {
@@ -78,31 +245,37 @@ public record Lexer(String fileName,
                 case '\n' -> {
                     rowNum++;
                     colNum = 0;
-                    currentLine = new StringBuilder();
+                    lines.add(position);
                 }
                 case '\r' -> {
-                    c = this.fileStream.read();
-                    if (c == '\n') {
-                        rowNum++;
-                        colNum = 0;
-                        currentLine = new StringBuilder();
-                    }
+                    if (position < this.limit && this.source[position] == '\n')
+                        position++;
+                    rowNum++;
+                    colNum = 0;
+                    lines.add(position);
                 }
                 case '/' -> {
-                    c = this.fileStream.read();
-                    if (c == '/') {
-                        while (c != '\r' && c != '\n' && c != -1) {
-                            c = this.fileStream.read();
-                        }
-                    } else {
-                        lastChar = c;
-                        return new Token(Token.Kind.DIVIDE, rowNum, colNum);
+                    int slash = position - 1;
+                    c = this.read();
+                    colNum++;
+                    if (c != '/') {
+                        unread(c);
+                        return token(Token.Kind.DIVIDE, slash, 1, rowNum, colNum - 1);
                     }
+                    // skip the comment, but leave the line break
+                    // to be handled as a blank
+                    int end = Blanks.lineEnd(this.source, position, this.limit);
+                    colNum += end - position;
+                    position = end;
                 }
             }
-            c = this.fileStream.read();
+            // jump over the rest of a run of spaces and tabs at once
+            long run = Blanks.skipBlanks(this.source, position, this.limit);
+            int end = (int) (run >>> 32);
+            colNum += (end - position) + 3 * (int) run;
+            position = end;
+            c = this.read();
             colNum++;
-            currentLine.append((char) c);
         }
 
         switch (c) {
@@ -110,64 +283,65 @@ public record Lexer(String fileName,
                 // The value for "lineNum" is now "null",
                 // you should modify this to an appropriate
                 // line number for the "EOF" token.
-                return new Token(Token.Kind.EOF, rowNum, colNum);
+                return token(Token.Kind.EOF, this.limit, 0, rowNum, colNum);
             }
             case '+' -> {
-                return new Token(Token.Kind.ADD, rowNum, colNum);
+                return token(Token.Kind.ADD);
             }
             case '-' -> {
-                return new Token(Token.Kind.MINUS, rowNum, colNum);
+                return token(Token.Kind.MINUS);
             }
             case '*' -> {
-                return new Token(Token.Kind.TIMES, rowNum, colNum);
+                return token(Token.Kind.TIMES);
             }
             case '/' -> {
-                return new Token(Token.Kind.DIVIDE, rowNum, colNum);
+                return token(Token.Kind.DIVIDE);
             }
             case ',' -> {
-                return new Token(Token.Kind.COMMA, rowNum, colNum);
+                return token(Token.Kind.COMMA);
             }
             case '.' -> {
-                return new Token(Token.Kind.DOT, rowNum, colNum);
+                return token(Token.Kind.DOT);
             }
             case '(' -> {
-                return new Token(Token.Kind.LPAREN, rowNum, colNum);
+                return token(Token.Kind.LPAREN);
             }
             case ')' -> {
-                return new Token(Token.Kind.RPAREN, rowNum, colNum);
+                return token(Token.Kind.RPAREN);
             }
             case '[' -> {
-                return new Token(Token.Kind.LBRACKET, rowNum, colNum);
+                return token(Token.Kind.LBRACKET);
             }
             case ']' -> {
-                return new Token(Token.Kind.RBRACKET, rowNum, colNum);
+                return token(Token.Kind.RBRACKET);
             }
             case ';' -> {
-                return new Token(Token.Kind.SEMICOLON, rowNum, colNum);
+                return token(Token.Kind.SEMICOLON);
             }
             case '{' -> {
-                return new Token(Token.Kind.LBRACE, rowNum, colNum);
+                return token(Token.Kind.LBRACE);
             }
             case '}' -> {
-                return new Token(Token.Kind.RBRACE, rowNum, colNum);
+                return token(Token.Kind.RBRACE);
             }
             case '=' -> {
-                return new Token(Token.Kind.ASSIGN, rowNum, colNum);
+                return token(Token.Kind.ASSIGN);
             }
             case '<' -> {
-                return new Token(Token.Kind.LESS, rowNum, colNum);
+                return token(Token.Kind.LESS);
             }
             case '>' -> {
-                return new Token(Token.Kind.GREATER, rowNum, colNum);
+                return token(Token.Kind.GREATER);
             }
             case '!' -> {
-                return new Token(Token.Kind.NOT, rowNum, colNum);
+                return token(Token.Kind.NOT);
             }
             case '&' -> {
-                c = this.fileStream.read();
+                int start = position - 1;
+                c = this.read();
                 colNum++;
                 if ('&' == c) {
-                    return new Token(Token.Kind.AND, rowNum, colNum);
+                    return token(Token.Kind.AND, start, 2, rowNum, colNum - 1);
                 }
                 throw new Error("AND needs two &");
             }
@@ -181,89 +355,131 @@ public record Lexer(String fileName,
                 // If you find you are writing a lot of code, you
                 // are on the wrong way.
                 if (Character.isLetter(c)) {
+                    int start = position - 1;
                     int startColNum = colNum;
-                    String word = GetWord(c);
-                    Token.Kind kind = keywords.get(word);
-                    if (kind != null) {
-                        return new Token(kind, rowNum, startColNum);
-                    }
-                    return new Token(Token.Kind.ID, word, rowNum, startColNum);
+                    int length = GetWord(c);
+                    Token.Kind kind = token(keyword(this.source, start, length), start, length, rowNum, startColNum);
+                    if (kind == Token.Kind.ID)
+                        tokenValue = symbols.intern(this.source, start, length);
+                    return kind;
                 } else if (Character.isDigit(c)) {
-                    StringBuilder num = new StringBuilder();
+                    int start = position - 1;
                     int startColNum = colNum;
+                    int length = 0;
+                    // the value is accumulated as the digits go by; it
+                    // stops growing once it is too large for an int
+                    long value = 0;
                     while (Character.isDigit(c)) {
-                        num.append((char) c);
-                        c = this.fileStream.read();
+                        length++;
+                        if (value <= Integer.MAX_VALUE)
+                            value = value * 10 + (c - '0');
+                        c = this.read();
                         colNum++;
                     }
-                    lastChar = c;
-                    return new Token(Token.Kind.INTEGER_LITERAL, num.toString(), rowNum, startColNum);
+                    unread(c);
+                    Token.Kind kind = token(Token.Kind.INTEGER_LITERAL, start, length, rowNum, startColNum);
+                    if (value > Integer.MAX_VALUE) {
+                        if (report) {
+                            tooLarge(this.fileName, this.lines, rowNum, startColNum);
+                            errors++;
+                        }
+                    } else {
+                        tokenValue = (int) value;
+                    }
+                    return kind;
                 }
                 throw new Todo();
             }
         }
     }
 
-    public String getCurrentLine() {
-        try {
-            String ret;
-            if (!currentLine.isEmpty()) {
-                char lastChar = currentLine.charAt(currentLine.length() - 1);
-                if (lastChar == '\n' || lastChar == '\r') {
-                    rowNum++;
-                    ret = currentLine.toString();
-                    currentLine = new StringBuilder();
-                    return ret;
-                }
-            }
-            int c = this.fileStream.read();
-            while(c != '\n' && c != '\r' && c != -1) {
-                currentLine.append((char) c);
-                c = this.fileStream.read();
-            }
-            if (c == '\r') {
-                c = this.fileStream.read();
-            }
-            rowNum++;
-            ret = currentLine.toString();
-            currentLine = new StringBuilder();
-            return ret;
-        } catch(Exception e) {
-            return null;
+    // the value of the integer literal source[offset, offset + length),
+    // or -1 if it does not fit in an int.
+    static int literal(byte[] s, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = value * 10 + (s[i] - '0');
+            if (value > Integer.MAX_VALUE)
+                return -1;
         }
+        return (int) value;
     }
 
-    public Token peekNextToken() {
-        try {
-            if (lastToken == null) {
-                lastToken = this.nextToken0();
-            }
-            return lastToken;
-        } catch (Exception e) {
-            //e.printStackTrace();
-            System.exit(1);
-            return null;
-        }
+    // report an integer literal too large for an int, at "row" and "col".
+    // The literal is kept, with the value -1, so that scanning goes on.
+    static void tooLarge(String fileName, LineIndex lines, int row, int col) {
+        System.out.println(STR."\{fileName}:\{row}:\{col} Error: integer literal too large");
+        System.out.println(lines.line(row));
+        System.out.println(STR."\{" ".repeat(Math.max(0, col - 1))}^");
+    }
+
+    public LineIndex lines() {
+        return this.lines;
+    }
 
+    // the number of diagnostics printed so far.
+    public int errors() {
+        return this.errors;
     }
 
-    public Token nextToken() {
-        Token t = null;
+    // the text of row "row" of the source, as far as it has been
+    // scanned; for diagnostics.
+    public String line(int row) {
+        return this.lines.line(row);
+    }
 
-        try {
-            if (lastToken != null) {
-                t = lastToken;
-                lastToken = null;
-            } else {
-                t = this.nextToken0();
-            }
-        } catch (Exception e) {
-            //e.printStackTrace();
-            System.exit(1);
+    // dump the token just recognized; the dump is complete after EOF.
+    private void dump(Token.Kind kind) {
+        if (this.dump == null)
+            this.dump = TokenDump.open();
+        this.dump.add(this.source, kind, tokenOffset, tokenLength, tokenRow, tokenCol);
+        if (kind == Token.Kind.EOF)
+            close();
+    }
+
+    // finish the dump of the tokens scanned so far, if any.
+    public void close() {
+        if (this.dump != null) {
+            this.dump.close();
+            this.dump = null;
         }
+    }
+
+    // scan the rest of the input into a token buffer, without
+    // allocating a token object for each token.
+    public TokenBuffer tokenize() {
+        TokenBuffer tokens = scan();
         if (dumpToken) {
-            System.out.println(t);
+            tokens.dump();
         }
-        return t;
+        return tokens;
+    }
+
+    // scan up to "count" more tokens into "stream", stopping after
+    // the EOF token; return the number of tokens scanned.
+    int fill(TokenStream stream, int count) {
+        int n = 0;
+        while (n < count) {
+            Token.Kind kind = this.nextToken0();
+            stream.put(kind, tokenOffset, tokenLength, tokenRow, tokenCol, tokenValue);
+            if (dumpToken) {
+                dump(kind);
+            }
+            n++;
+            if (kind == Token.Kind.EOF)
+                break;
+        }
+        return n;
+    }
+
+    TokenBuffer scan() {
+        TokenBuffer tokens = new TokenBuffer(this.source, this.symbols, this.lines);
+        Token.Kind kind;
+        do {
+            kind = this.nextToken0();
+            tokens.add(kind, tokenOffset, tokenLength, tokenRow, tokenCol, tokenValue);
+        } while (kind != Token.Kind.EOF);
+        tokens.errors = this.errors;
+        return tokens;
     }
 }
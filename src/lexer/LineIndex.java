@@ -0,0 +1,118 @@
+package lexer;
+
+import util.ByteList;
+import util.ByteReader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// The line index records the offset at which each source line
+// starts. The lexer fills it in as it crosses line breaks, so any
+// line can later be sliced out of the source in constant time, for
+// example to show the context of a diagnostic.
+public class LineIndex {
+    private final byte[] source;
+    // starts[r - 1] is the offset of row r
+    private int[] starts;
+    private int size;
+
+    // the first line starts at "start"
+    public LineIndex(byte[] source, int start) {
+        this.source = source;
+        this.starts = new int[64];
+        this.starts[0] = start;
+        this.size = 1;
+    }
+
+    public LineIndex(byte[] source) {
+        this(source, 0);
+    }
+
+    // a new line starts at "offset".
+    void add(int offset) {
+        if (this.size == this.starts.length)
+            this.starts = Arrays.copyOf(this.starts, this.size << 1);
+        this.starts[this.size++] = offset;
+    }
+
+    // append the lines of "other", which continues this index.
+    void append(LineIndex other) {
+        for (int r = 2; r <= other.size; r++)
+            add(other.starts[r - 1]);
+    }
+
+    // the row (1-based) of the byte at "offset".
+    public int row(int offset) {
+        int low = 1;
+        int high = this.size;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (this.starts[mid - 1] <= offset)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+    // the index of "source", an edited copy of this one's, in which
+    // rows "first" to "last" were scanned again into "window", and
+    // the bytes after them moved by "shift"; "window" ends with the
+    // start of row "last + 1", unless "last" is the last row.
+    LineIndex edit(byte[] source, int first, int last, LineIndex window, int shift) {
+        boolean end = last == this.size;
+        int count = window.size - (end ? 0 : 1);
+        LineIndex lines = new LineIndex(source);
+        lines.starts = new int[Math.max(1, first - 1 + count + this.size - last)];
+        System.arraycopy(this.starts, 0, lines.starts, 0, first - 1);
+        System.arraycopy(window.starts, 0, lines.starts, first - 1, count);
+        int base = first - 1 + count;
+        for (int r = last + 1; r <= this.size; r++)
+            lines.starts[base + r - last - 1] = this.starts[r - 1] + shift;
+        lines.size = base + this.size - last;
+        return lines;
+    }
+
+    // the number of lines seen so far.
+    public int lines() {
+        return this.size;
+    }
+
+    // the offset of the first byte of row "row" (1-based).
+    public int start(int row) {
+        return this.starts[row - 1];
+    }
+
+    // the text of row "row" (1-based), without its line terminator.
+    public String line(int row) {
+        if (row < 1 || row > this.size)
+            return "";
+        int start = this.starts[row - 1];
+        // the last row seen so far may not have been scanned to its end
+        int end = (row < this.size) ? this.starts[row] : Blanks.lineEnd(this.source, start, this.source.length);
+        while (end > start && (this.source[end - 1] == '\n' || this.source[end - 1] == '\r'))
+            end--;
+        return new String(this.source, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    // ///////////////////////////////////////////
+    // encoding: the number of lines, the start of the first, then the
+    // length of each but the last, as varints
+
+    void write(ByteList out) {
+        out.addVarint(this.size);
+        out.addVarint(this.starts[0]);
+        for (int r = 1; r < this.size; r++)
+            out.addVarint(this.starts[r] - this.starts[r - 1]);
+    }
+
+    static LineIndex read(byte[] source, ByteReader in) {
+        LineIndex lines = new LineIndex(source);
+        lines.size = in.varint();
+        lines.starts = new int[Math.max(lines.size, 1)];
+        lines.starts[0] = in.varint();
+        for (int r = 1; r < lines.size; r++)
+            lines.starts[r] = lines.starts[r - 1] + in.varint();
+        return lines;
+    }
+}
@@ -0,0 +1,120 @@
+package lexer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static control.Control.Lexer.dumpToken;
+
+// A lexer for very large sources: the source is cut into chunks at
+// line breaks, each chunk is scanned by its own "Lexer" on a fork/join
+// pool, and the chunk token buffers are stitched back together.
+// MiniJava has no token spanning a line break (a "//" comment ends at
+// one), so no token or comment can straddle a chunk boundary.
+// Stitching shifts the rows of each chunk by the number of lines
+// before it, and renumbers the identifiers of each chunk's private
+// symbol table into the shared one, in chunk order, so that the ids
+// come out exactly as a sequential scan would assign them.
+// The result is token-for-token identical to "Lexer.tokenize()".
+public class ParallelLexer {
+    // smaller chunks do not pay for their task
+    private static final int minChunkSize = 64 * 1024;
+
+    private final String fileName;
+    private final byte[] source;
+    private final SymbolTable symbols;
+    private final ForkJoinPool pool;
+
+    public ParallelLexer(String fileName, byte[] source, SymbolTable symbols, ForkJoinPool pool) {
+        this.fileName = fileName;
+        this.source = source;
+        this.symbols = symbols;
+        this.pool = pool;
+    }
+
+    public ParallelLexer(String fileName, byte[] source, SymbolTable symbols) {
+        this(fileName, source, symbols, ForkJoinPool.commonPool());
+    }
+
+    // the offset just after the first line break at or after "p",
+    // or the end of the source.
+    private int nextLineStart(int p) {
+        int n = this.source.length;
+        p = Blanks.lineEnd(this.source, p, n);
+        if (p < n && this.source[p] == '\r')
+            p++;
+        if (p < n && this.source[p] == '\n')
+            p++;
+        return p;
+    }
+
+    // cut the source into about "count" chunks, each ending just
+    // after a line break; return the chunk start offsets, followed
+    // by the end of the source.
+    private int[] split(int count) {
+        int n = this.source.length;
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        int previous = 0;
+        for (int k = 1; k < count; k++) {
+            int cut = nextLineStart((int) ((long) n * k / count));
+            if (cut > previous && cut < n) {
+                bounds.add(cut);
+                previous = cut;
+            }
+        }
+        bounds.add(n);
+        return bounds.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public TokenBuffer tokenize() {
+        int chunks = Math.max(1, Math.min(this.pool.getParallelism() * 4, this.source.length / minChunkSize));
+        int[] bounds = split(chunks);
+        chunks = bounds.length - 1;
+
+        List<ForkJoinTask<TokenBuffer>> tasks = new ArrayList<>();
+        for (int k = 0; k < chunks; k++) {
+            int start = bounds[k];
+            int end = bounds[k + 1];
+            tasks.add(this.pool.submit(() ->
+                    new Lexer(this.fileName, this.source, new SymbolTable(), start, end).quiet().scan()));
+        }
+
+        // stitch the chunks together, in source order
+        LineIndex lines = new LineIndex(this.source);
+        List<TokenBuffer> parts = new ArrayList<>();
+        int total = 0;
+        for (ForkJoinTask<TokenBuffer> task : tasks) {
+            TokenBuffer part = task.join();
+            parts.add(part);
+            total += part.size();
+        }
+        TokenBuffer tokens = new TokenBuffer(this.source, this.symbols, lines, total);
+        int rowOffset = 0;
+        for (int k = 0; k < chunks; k++) {
+            TokenBuffer part = parts.get(k);
+            SymbolTable local = part.symbols();
+            int[] symbolMap = new int[local.size()];
+            for (int id = 0; id < local.size(); id++)
+                symbolMap[id] = this.symbols.intern(local.name(id));
+            // only the last chunk keeps its EOF token
+            int count = (k == chunks - 1) ? part.size() : part.size() - 1;
+            tokens.append(part, count, rowOffset, symbolMap);
+            lines.append(part.lines());
+            rowOffset += part.lines().lines() - 1;
+        }
+        // the chunks left too large integer literals unreported, as
+        // their rows were not known yet
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.kind(i) == Token.Kind.INTEGER_LITERAL && tokens.value(i) < 0) {
+                Lexer.tooLarge(this.fileName, lines, tokens.row(i), tokens.col(i));
+                tokens.errors++;
+            }
+        }
+        if (dumpToken) {
+            tokens.dump();
+        }
+        return tokens;
+    }
+}
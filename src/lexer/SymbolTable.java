@@ -0,0 +1,141 @@
+package lexer;
+
+import util.ByteList;
+import util.ByteReader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// The symbol table interns identifiers: each distinct identifier
+// is stored once and named by a small integer (its symbol id),
+// so that later phases compare identifiers by id instead of by
+// string. Lookups run straight over the source bytes, so an
+// identifier seen before costs no allocation.
+// One table is shared by the lexer and the parser of a compilation;
+// it is not thread-safe.
+public final class SymbolTable {
+    // identifiers the parser looks for, with fixed ids
+    public static final int SYSTEM = 0;
+    public static final int OUT = 1;
+    public static final int PRINTLN = 2;
+
+    private static final int initialCapacity = 256;
+
+    // open addressing: each slot holds (id + 1), or 0 if empty
+    private int[] slots;
+    // indexed by id
+    private String[] names;
+    private int[] hashes;
+    private int size;
+
+    public SymbolTable() {
+        this.slots = new int[initialCapacity];
+        this.names = new String[initialCapacity];
+        this.hashes = new int[initialCapacity];
+        this.size = 0;
+        intern("System");
+        intern("out");
+        intern("println");
+    }
+
+    private static int hash(byte[] s, int offset, int length) {
+        int h = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ (s[i] & 0xff)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean same(String name, byte[] s, int offset, int length) {
+        if (name.length() != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != (s[offset + i] & 0xff))
+                return false;
+        }
+        return true;
+    }
+
+    // return the id of the identifier spelled by the given bytes,
+    // entering it into the table if it is new.
+    public int intern(byte[] s, int offset, int length) {
+        int h = hash(s, offset, length);
+        int mask = this.slots.length - 1;
+        int i = h & mask;
+        while (this.slots[i] != 0) {
+            int id = this.slots[i] - 1;
+            if (this.hashes[id] == h && same(this.names[id], s, offset, length))
+                return id;
+            i = (i + 1) & mask;
+        }
+        int id = this.size++;
+        if (id == this.names.length) {
+            this.names = Arrays.copyOf(this.names, id << 1);
+            this.hashes = Arrays.copyOf(this.hashes, id << 1);
+        }
+        this.names[id] = new String(s, offset, length, StandardCharsets.ISO_8859_1);
+        this.hashes[id] = h;
+        this.slots[i] = id + 1;
+        // keep the load factor under 1/2
+        if (this.size << 1 > this.slots.length)
+            rehash();
+        return id;
+    }
+
+    public int intern(String name) {
+        byte[] s = name.getBytes(StandardCharsets.ISO_8859_1);
+        return intern(s, 0, s.length);
+    }
+
+    private void rehash() {
+        int[] slots = new int[this.slots.length << 1];
+        int mask = slots.length - 1;
+        for (int id = 0; id < this.size; id++) {
+            int i = this.hashes[id] & mask;
+            while (slots[i] != 0)
+                i = (i + 1) & mask;
+            slots[i] = id + 1;
+        }
+        this.slots = slots;
+    }
+
+    // the identifier named by "id".
+    public String name(int id) {
+        return this.names[id];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    // ///////////////////////////////////////////
+    // encoding, as the string table shared by the tokens and the tree
+    // of a file: the number of names, then each name as its length
+    // and its bytes, all as varints. Read back, the names are
+    // interned in order, so they get the same ids.
+
+    public void write(ByteList out) {
+        out.addVarint(this.size);
+        for (int id = 0; id < this.size; id++) {
+            byte[] name = this.names[id].getBytes(StandardCharsets.ISO_8859_1);
+            out.addVarint(name.length);
+            out.addBytes(name, 0, name.length);
+        }
+    }
+
+    public static SymbolTable read(ByteReader in) {
+        SymbolTable symbols = new SymbolTable();
+        int size = in.varint();
+        byte[] name = new byte[64];
+        for (int id = 0; id < size; id++) {
+            int length = in.varint();
+            if (length > name.length)
+                name = new byte[length];
+            in.get(name, 0, length);
+            // the fixed ids are there already
+            if (symbols.intern(name, 0, length) != id)
+                throw new IllegalStateException("bad string table");
+        }
+        return symbols;
+    }
+}
@@ -0,0 +1,274 @@
+package lexer;
+
+import util.Todo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static control.Control.Lexer.dumpToken;
+
+// A table-driven lexer: a selectable alternative to the hand-written
+// "Lexer", producing the same tokens.
+// The tables are generated once, when the class is loaded, from the
+// declarative token specification below: every fixed lexeme is
+// entered into a trie of DFA states, then identifiers, integer
+// literals and "//" comments are added on top of it. Finally, the
+// bytes with identical transitions are merged into byte classes,
+// so that the transition table has one column per class.
+// Blanks are not part of the DFA: the driver skips them itself,
+// as it has to count rows and columns for them anyway.
+public class TableLexer {
+    // the token specification: each fixed lexeme and its kind.
+    private static final Object[][] spec = {
+            {"+", Token.Kind.ADD},
+            {"-", Token.Kind.MINUS},
+            {"*", Token.Kind.TIMES},
+            {"/", Token.Kind.DIVIDE},
+            {",", Token.Kind.COMMA},
+            {".", Token.Kind.DOT},
+            {"(", Token.Kind.LPAREN},
+            {")", Token.Kind.RPAREN},
+            {"[", Token.Kind.LBRACKET},
+            {"]", Token.Kind.RBRACKET},
+            {";", Token.Kind.SEMICOLON},
+            {"{", Token.Kind.LBRACE},
+            {"}", Token.Kind.RBRACE},
+            {"=", Token.Kind.ASSIGN},
+            {"<", Token.Kind.LESS},
+            {">", Token.Kind.GREATER},
+            {"!", Token.Kind.NOT},
+            {"&&", Token.Kind.AND},
+            {"true", Token.Kind.TRUE},
+            {"false", Token.Kind.FALSE},
+            {"this", Token.Kind.THIS},
+            {"class", Token.Kind.CLASS},
+            {"int", Token.Kind.INT},
+            {"boolean", Token.Kind.BOOLEAN},
+            {"new", Token.Kind.NEW},
+            {"public", Token.Kind.PUBLIC},
+            {"static", Token.Kind.STATIC},
+            {"void", Token.Kind.VOID},
+            {"String", Token.Kind.STRING},
+            {"if", Token.Kind.IF},
+            {"else", Token.Kind.ELSE},
+            {"while", Token.Kind.WHILE},
+            {"return", Token.Kind.RETURN},
+            {"length", Token.Kind.LENGTH},
+            {"extends", Token.Kind.EXTENDS},
+    };
+
+    private static final Token.Kind[] kinds = Token.Kind.values();
+    // the start state
+    private static final int start = 0;
+    // accepting values besides the kind ordinals
+    private static final int reject = -1;
+    private static final int comment = -2;
+
+    // the generated tables
+    private static final byte[] byteClass = new byte[256];
+    private static final int classes;
+    // next state = transition[state * classes + class], -1 if none
+    private static final int[] transition;
+    // what a state accepts: a kind ordinal, "comment" or "reject"
+    private static final int[] accept;
+
+    static {
+        // first build the DFA with one column per byte value
+        List<int[]> rows = new ArrayList<>();
+        List<Integer> accepts = new ArrayList<>();
+        newState(rows, accepts);
+        // states spelling a prefix of a word
+        List<Integer> words = new ArrayList<>();
+        for (Object[] rule : spec) {
+            String lexeme = (String) rule[0];
+            Token.Kind kind = (Token.Kind) rule[1];
+            int s = start;
+            for (int i = 0; i < lexeme.length(); i++) {
+                int c = lexeme.charAt(i);
+                if (rows.get(s)[c] < 0) {
+                    rows.get(s)[c] = newState(rows, accepts);
+                    if (isWordStart(lexeme.charAt(0)))
+                        words.add(rows.get(s)[c]);
+                }
+                s = rows.get(s)[c];
+            }
+            accepts.set(s, kind.ordinal());
+        }
+        // identifiers: any word byte leaving the keyword trie, and any
+        // keyword prefix that is not a keyword, make an identifier
+        int id = newState(rows, accepts);
+        accepts.set(id, Token.Kind.ID.ordinal());
+        words.add(id);
+        for (int c = 0; c < 256; c++) {
+            if (isWordStart(c) && rows.get(start)[c] < 0)
+                rows.get(start)[c] = id;
+        }
+        for (int s : words) {
+            if (accepts.get(s) == reject)
+                accepts.set(s, Token.Kind.ID.ordinal());
+            for (int c = 0; c < 256; c++) {
+                if (isWordPart(c) && rows.get(s)[c] < 0)
+                    rows.get(s)[c] = id;
+            }
+        }
+        // integer literals
+        int num = newState(rows, accepts);
+        accepts.set(num, Token.Kind.INTEGER_LITERAL.ordinal());
+        for (int c = '0'; c <= '9'; c++) {
+            rows.get(start)[c] = num;
+            rows.get(num)[c] = num;
+        }
+        // comments: "//" up to, but not including, the line break
+        int slash = rows.get(start)['/'];
+        int line = newState(rows, accepts);
+        accepts.set(line, comment);
+        rows.get(slash)['/'] = line;
+        for (int c = 0; c < 256; c++) {
+            if (c != '\n' && c != '\r')
+                rows.get(line)[c] = line;
+        }
+
+        // then merge the bytes with identical columns into classes
+        HashMap<String, Integer> columns = new HashMap<>();
+        List<Integer> representative = new ArrayList<>();
+        for (int c = 0; c < 256; c++) {
+            int[] column = new int[rows.size()];
+            for (int s = 0; s < rows.size(); s++)
+                column[s] = rows.get(s)[c];
+            String key = Arrays.toString(column);
+            Integer k = columns.get(key);
+            if (k == null) {
+                k = representative.size();
+                columns.put(key, k);
+                representative.add(c);
+            }
+            byteClass[c] = (byte) (int) k;
+        }
+        classes = representative.size();
+        transition = new int[rows.size() * classes];
+        for (int s = 0; s < rows.size(); s++) {
+            for (int k = 0; k < classes; k++)
+                transition[s * classes + k] = rows.get(s)[representative.get(k)];
+        }
+        accept = accepts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int newState(List<int[]> rows, List<Integer> accepts) {
+        int[] row = new int[256];
+        Arrays.fill(row, -1);
+        rows.add(row);
+        accepts.add(reject);
+        return rows.size() - 1;
+    }
+
+    private static boolean isWordStart(int c) {
+        return Character.isLetter(c);
+    }
+
+    private static boolean isWordPart(int c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private final String fileName;
+    private final byte[] source;
+    private final SymbolTable symbols;
+
+    public TableLexer(String fileName, byte[] source, SymbolTable symbols) {
+        this.fileName = fileName;
+        this.source = source;
+        this.symbols = symbols;
+    }
+
+    public String fileName() {
+        return this.fileName;
+    }
+
+    // scan the whole input into a token buffer.
+    public TokenBuffer tokenize() {
+        byte[] s = this.source;
+        int n = s.length;
+        LineIndex lines = new LineIndex(s);
+        TokenBuffer tokens = new TokenBuffer(s, this.symbols, lines);
+        int position = 0;
+        int rowNum = 1;
+        // the column of the last character consumed
+        int colNum = 0;
+        while (true) {
+            // skip blanks; runs of spaces and tabs are jumped over
+            // a word at a time
+            while (position < n) {
+                int c = s[position];
+                if (c == ' ' || c == '\t') {
+                    long run = Blanks.skipBlanks(s, position, n);
+                    int end = (int) (run >>> 32);
+                    colNum += (end - position) + 3 * (int) run;
+                    position = end;
+                    continue;
+                } else if (c == '\n') {
+                    rowNum++;
+                    colNum = 0;
+                    lines.add(position + 1);
+                } else if (c == '\r') {
+                    if (position + 1 < n && s[position + 1] == '\n')
+                        position++;
+                    rowNum++;
+                    colNum = 0;
+                    lines.add(position + 1);
+                } else {
+                    break;
+                }
+                position++;
+            }
+            if (position == n) {
+                tokens.add(Token.Kind.EOF, n, 0, rowNum, colNum + 1, -1);
+                if (dumpToken) {
+                    tokens.dump();
+                }
+                return tokens;
+            }
+
+            // run the DFA for the longest match
+            int state = start;
+            int p = position;
+            int matched = reject;
+            int end = position;
+            while (p < n) {
+                state = transition[state * classes + byteClass[s[p] & 0xff]];
+                if (state < 0)
+                    break;
+                p++;
+                if (accept[state] != reject) {
+                    matched = accept[state];
+                    end = p;
+                }
+            }
+            int length = end - position;
+            if (matched == comment) {
+                colNum += length;
+                position = end;
+                continue;
+            }
+            if (matched == reject) {
+                if (s[position] == '&')
+                    throw new Error("AND needs two &");
+                throw new Todo();
+            }
+            Token.Kind kind = kinds[matched];
+            int value = -1;
+            if (kind == Token.Kind.ID) {
+                value = this.symbols.intern(s, position, length);
+            } else if (kind == Token.Kind.INTEGER_LITERAL) {
+                value = Lexer.literal(s, position, length);
+                if (value < 0) {
+                    Lexer.tooLarge(this.fileName, lines, rowNum, colNum + 1);
+                    tokens.errors++;
+                }
+            }
+            tokens.add(kind, position, length, rowNum, colNum + 1, value);
+            colNum += length;
+            position = end;
+        }
+    }
+}
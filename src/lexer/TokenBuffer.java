@@ -0,0 +1,360 @@
+package lexer;
+
+import util.ByteList;
+import util.ByteReader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// A token buffer stores the tokens of a whole source file column
+// by column: one primitive array for each attribute of a token,
+// instead of one "Token" object (and two boxed integers) per token.
+// The lexeme of a token is not stored: an identifier is named by
+// its symbol id, and other lexemes are sliced out of the source on
+// demand.
+public class TokenBuffer {
+    private static final Token.Kind[] kinds = Token.Kind.values();
+    private static final int initialCapacity = 1024;
+    private static final byte idOrdinal = (byte) Token.Kind.ID.ordinal();
+    private static final byte intOrdinal = (byte) Token.Kind.INTEGER_LITERAL.ordinal();
+
+    private byte[] source;
+    private final SymbolTable symbols;
+    private LineIndex lines;
+    // the columns: kind ordinal, source offset, length, row, column
+    // and a payload: the symbol id of an identifier, the value of an
+    // integer literal (-1 if it is too large), -1 otherwise
+    private byte[] kind;
+    private int[] offset;
+    private int[] length;
+    private int[] row;
+    private int[] col;
+    private int[] value;
+    private int size;
+    // the diagnostics printed while scanning it
+    int errors = 0;
+    // see "edit()"
+    private int scannedFrom = 0;
+    private int scannedTo = 0;
+
+    public TokenBuffer(byte[] source, SymbolTable symbols, LineIndex lines, int capacity) {
+        this.source = source;
+        this.symbols = symbols;
+        this.lines = lines;
+        capacity = Math.max(capacity, 1);
+        this.kind = new byte[capacity];
+        this.offset = new int[capacity];
+        this.length = new int[capacity];
+        this.row = new int[capacity];
+        this.col = new int[capacity];
+        this.value = new int[capacity];
+        this.size = 0;
+    }
+
+    public TokenBuffer(byte[] source, SymbolTable symbols, LineIndex lines) {
+        this(source, symbols, lines, initialCapacity);
+    }
+
+    private void grow(int capacity) {
+        this.kind = Arrays.copyOf(this.kind, capacity);
+        this.offset = Arrays.copyOf(this.offset, capacity);
+        this.length = Arrays.copyOf(this.length, capacity);
+        this.row = Arrays.copyOf(this.row, capacity);
+        this.col = Arrays.copyOf(this.col, capacity);
+        this.value = Arrays.copyOf(this.value, capacity);
+    }
+
+    public void add(Token.Kind kind, int offset, int length, int row, int col, int value) {
+        if (this.size == this.kind.length)
+            grow(this.size << 1);
+        this.kind[this.size] = (byte) kind.ordinal();
+        this.offset[this.size] = offset;
+        this.length[this.size] = length;
+        this.row[this.size] = row;
+        this.col[this.size] = col;
+        this.value[this.size] = value;
+        this.size++;
+    }
+
+    // append the first "count" tokens of "other", which was scanned
+    // from a later part of the same source with its own symbol table:
+    // rows are shifted by "rowOffset" and symbol ids mapped through
+    // "symbolMap".
+    void append(TokenBuffer other, int count, int rowOffset, int[] symbolMap) {
+        if (this.size + count > this.kind.length)
+            grow(Math.max(this.size + count, this.size << 1));
+        int base = this.size;
+        System.arraycopy(other.kind, 0, this.kind, base, count);
+        System.arraycopy(other.offset, 0, this.offset, base, count);
+        System.arraycopy(other.length, 0, this.length, base, count);
+        System.arraycopy(other.col, 0, this.col, base, count);
+        for (int i = 0; i < count; i++) {
+            this.row[base + i] = other.row[i] + rowOffset;
+            int v = other.value[i];
+            this.value[base + i] = (other.kind[i] == idOrdinal) ? symbolMap[v] : v;
+        }
+        this.size += count;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    // the first token at or after "offset".
+    private int at(int offset) {
+        int low = 0;
+        int high = this.size - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.offset[mid] < offset)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    // replace the "removed" bytes at "offset" of the source by
+    // "inserted", in place. Only the lines the edit touches, and the
+    // line before, which a line break may be joined to, are scanned
+    // again, with this buffer's symbol table; the tokens after them
+    // are moved. Too large integer literals in those lines are left
+    // unreported, with the value -1. Return the tokens replaced, as a
+    // buffer of their own, over the old source.
+    public TokenBuffer edit(String fileName, int offset, int removed, byte[] inserted) {
+        int n = this.source.length;
+        int shift = inserted.length - removed;
+        byte[] source = new byte[n + shift];
+        System.arraycopy(this.source, 0, source, 0, offset);
+        System.arraycopy(inserted, 0, source, offset, inserted.length);
+        System.arraycopy(this.source, offset + removed, source, offset + inserted.length, n - offset - removed);
+
+        int first = this.lines.row(Math.max(offset - 1, 0));
+        int last = this.lines.row(offset + removed);
+        boolean end = last == this.lines.lines();
+        int start = this.lines.start(first);
+        int stop = end ? n : this.lines.start(last + 1);
+        int from = at(start);
+        int to = end ? this.size : at(stop);
+        TokenBuffer window = new Lexer(fileName, source, this.symbols, start, stop + shift).quiet().scan();
+        // only the last line keeps its EOF token
+        int count = end ? window.size : window.size - 1;
+        LineIndex lines = this.lines.edit(source, first, last, window.lines, shift);
+        int rowShift = first + window.lines.lines() - (end ? 0 : 1) - (last + 1);
+
+        TokenBuffer replaced = new TokenBuffer(this.source, this.symbols, this.lines, to - from);
+        System.arraycopy(this.kind, from, replaced.kind, 0, to - from);
+        System.arraycopy(this.offset, from, replaced.offset, 0, to - from);
+        System.arraycopy(this.length, from, replaced.length, 0, to - from);
+        System.arraycopy(this.row, from, replaced.row, 0, to - from);
+        System.arraycopy(this.col, from, replaced.col, 0, to - from);
+        System.arraycopy(this.value, from, replaced.value, 0, to - from);
+        replaced.size = to - from;
+
+        int size = from + count + (this.size - to);
+        if (size > this.kind.length)
+            grow(Math.max(size, this.size << 1));
+        int base = from + count;
+        int rest = this.size - to;
+        if (base != to) {
+            System.arraycopy(this.kind, to, this.kind, base, rest);
+            System.arraycopy(this.offset, to, this.offset, base, rest);
+            System.arraycopy(this.length, to, this.length, base, rest);
+            System.arraycopy(this.row, to, this.row, base, rest);
+            System.arraycopy(this.col, to, this.col, base, rest);
+            System.arraycopy(this.value, to, this.value, base, rest);
+        }
+        for (int i = base; i < base + rest; i++) {
+            this.offset[i] += shift;
+            this.row[i] += rowShift;
+        }
+        System.arraycopy(window.kind, 0, this.kind, from, count);
+        System.arraycopy(window.offset, 0, this.offset, from, count);
+        System.arraycopy(window.length, 0, this.length, from, count);
+        System.arraycopy(window.col, 0, this.col, from, count);
+        System.arraycopy(window.value, 0, this.value, from, count);
+        for (int i = 0; i < count; i++)
+            this.row[from + i] = window.row[i] + first - 1;
+        this.source = source;
+        this.lines = lines;
+        this.size = size;
+        this.scannedFrom = from;
+        this.scannedTo = base;
+        return replaced;
+    }
+
+    // after "edit()", the tokens scanned again: those before are the
+    // same as before the edit, and so are those after, but moved.
+    public int scannedFrom() {
+        return this.scannedFrom;
+    }
+
+    public int scannedTo() {
+        return this.scannedTo;
+    }
+
+    public byte[] source() {
+        return this.source;
+    }
+
+    public SymbolTable symbols() {
+        return this.symbols;
+    }
+
+    public LineIndex lines() {
+        return this.lines;
+    }
+
+    public Token.Kind kind(int i) {
+        return kinds[this.kind[i]];
+    }
+
+    public int offset(int i) {
+        return this.offset[i];
+    }
+
+    public int length(int i) {
+        return this.length[i];
+    }
+
+    public int row(int i) {
+        return this.row[i];
+    }
+
+    public int col(int i) {
+        return this.col[i];
+    }
+
+    // the symbol id of the i-th token, if it is an identifier;
+    // -1 otherwise.
+    public int symbol(int i) {
+        return (this.kind[i] == idOrdinal) ? this.value[i] : -1;
+    }
+
+    // the value of the i-th token, if it is an integer literal.
+    public int value(int i) {
+        return this.value[i];
+    }
+
+    // the source text of the i-th token.
+    public String lexeme(int i) {
+        if (kind(i) == Token.Kind.ID)
+            return this.symbols.name(this.value[i]);
+        return new String(this.source, this.offset[i], this.length[i], StandardCharsets.ISO_8859_1);
+    }
+
+    public int errors() {
+        return this.errors;
+    }
+
+    // the source line containing the i-th token,
+    // without its line terminator.
+    public String line(int i) {
+        return this.lines.line(this.row[i]);
+    }
+
+    // dump every token, for "-dump token".
+    public void dump() {
+        try (TokenDump out = TokenDump.open()) {
+            out.add(this);
+        }
+    }
+
+    // the number of bytes taken by the columns (without the source).
+    public long footprint() {
+        return (long) this.kind.length * (Byte.BYTES + 5 * Integer.BYTES);
+    }
+
+    // ///////////////////////////////////////////
+    // encoding, for the parse cache: the line index, the number of
+    // tokens, then each token, with its position as a change from the
+    // token before, all as varints but the first byte:
+    //   - the kind ordinal, plus 64 times the rows since the token
+    //     before, if under 3, or 3, followed by the rows less 3;
+    //   - the bytes since the end of the token before;
+    //   - on the same row, the columns since its end (zigzag: 2n for
+    //     n >= 0, -2n - 1 for n < 0), or else the column;
+    //   - for an identifier, its symbol id, whose name gives its
+    //     length; for an integer literal, its length and value + 1;
+    //     for any other token, its length.
+    // The source is not part of it, nor the symbol table, which the
+    // tree shares; a token takes about 4 bytes instead of 21.
+
+    public void write(ByteList out) {
+        this.lines.write(out);
+        out.addVarint(this.size);
+        int end = 0;
+        int row = 1;
+        int col = 1;
+        for (int i = 0; i < this.size; i++) {
+            int rows = this.row[i] - row;
+            out.add((byte) (this.kind[i] | Math.min(rows, 3) << 6));
+            if (rows >= 3)
+                out.addVarint(rows - 3);
+            out.addVarint(this.offset[i] - end);
+            if (rows == 0) {
+                int cols = this.col[i] - col;
+                out.addVarint(cols << 1 ^ cols >> 31);
+            } else {
+                out.addVarint(this.col[i]);
+            }
+            switch (kinds[this.kind[i]]) {
+                case ID -> out.addVarint(this.value[i]);
+                case INTEGER_LITERAL -> {
+                    out.addVarint(this.length[i]);
+                    out.addVarint(this.value[i] + 1);
+                }
+                default -> out.addVarint(this.length[i]);
+            }
+            end = this.offset[i] + this.length[i];
+            row = this.row[i];
+            col = this.col[i] + this.length[i];
+        }
+    }
+
+    // the tokens written by "write()" for "source", whose identifiers
+    // are named in "symbols".
+    public static TokenBuffer read(byte[] source, SymbolTable symbols, ByteReader in) {
+        LineIndex lines = LineIndex.read(source, in);
+        int size = in.varint();
+        TokenBuffer tokens = new TokenBuffer(source, symbols, lines, size);
+        int end = 0;
+        int row = 1;
+        int col = 1;
+        for (int i = 0; i < size; i++) {
+            int b = in.get() & 0xff;
+            byte kind = (byte) (b & 0x3f);
+            int rows = b >>> 6;
+            if (rows == 3)
+                rows += in.varint();
+            int offset = end + in.varint();
+            if (rows == 0) {
+                int cols = in.varint();
+                col += cols >>> 1 ^ -(cols & 1);
+            } else {
+                col = in.varint();
+            }
+            row += rows;
+            int length;
+            int value = -1;
+            if (kind == idOrdinal) {
+                value = in.varint();
+                length = symbols.name(value).length();
+            } else {
+                length = in.varint();
+                if (kind == intOrdinal)
+                    value = in.varint() - 1;
+            }
+            tokens.kind[i] = kind;
+            tokens.offset[i] = offset;
+            tokens.length[i] = length;
+            tokens.row[i] = row;
+            tokens.col[i] = col;
+            tokens.value[i] = value;
+            end = offset + length;
+            col += length;
+        }
+        tokens.size = size;
+        return tokens;
+    }
+}
@@ -0,0 +1,217 @@
+package lexer;
+
+import control.Control;
+import util.Output;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// The sink behind "-dump token": tokens are encoded straight into
+// large byte buffers, with no string built per token, and each full
+// buffer is handed to a writer thread that drains it into the output
+// channel while the lexer goes on. Buffers are recycled, so a dump
+// allocates a fixed amount of memory however long the input is.
+//
+// Two formats:
+//   Text:   one line per token, "row:col KIND" followed by the lexeme
+//           for identifiers and integer literals, e.g. "3:5 ID x";
+//   Binary: the magic bytes "TOK1", then per token the kind ordinal
+//           (1 byte), row and column (4 bytes each), and for
+//           identifiers and integer literals the lexeme length
+//           (4 bytes) and its bytes; integers are little-endian.
+public class TokenDump implements AutoCloseable {
+    private static final Token.Kind[] kinds = Token.Kind.values();
+    private static final byte[][] kindNames = new byte[kinds.length][];
+
+    static {
+        for (Token.Kind k : kinds)
+            kindNames[k.ordinal()] = k.name().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static final int bufferSize = 1 << 20;
+    // buffers in flight between the lexer and the writer
+    private static final int buffers = 4;
+    // the largest fixed-size part of an encoded token
+    private static final int slack = 64;
+
+    private final WritableByteChannel out;
+    private final boolean closeOut;
+    private final Control.Lexer.DumpFormat format;
+    // full buffers on their way to the writer, and empty ones back;
+    // an empty buffer sent to the writer asks it to stop
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(buffers + 1);
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(buffers);
+    private final Thread writer;
+    private volatile IOException failure = null;
+    private ByteBuffer buffer;
+
+    public TokenDump(WritableByteChannel out, boolean closeOut, Control.Lexer.DumpFormat format) {
+        this.out = out;
+        this.closeOut = closeOut;
+        this.format = format;
+        for (int i = 0; i < buffers; i++)
+            this.free.add(ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN));
+        this.buffer = this.free.remove();
+        this.writer = Thread.ofPlatform().name("token-dump").daemon().start(this::drain);
+        if (format == Control.Lexer.DumpFormat.Binary)
+            this.buffer.put("TOK1".getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    // a dump to where "-dump" and "-dump-to" say.
+    public static TokenDump open() {
+        // what was printed before goes before the dump
+        System.out.flush();
+        if (Control.Lexer.dumpFile == null && Output.captured() != null)
+            return new TokenDump(Channels.newChannel(Output.captured()), false, Control.Lexer.dumpFormat);
+        if (Control.Lexer.dumpFile == null) {
+            FileChannel stdout = new FileOutputStream(FileDescriptor.out).getChannel();
+            return new TokenDump(stdout, false, Control.Lexer.dumpFormat);
+        }
+        try {
+            FileChannel file = FileChannel.open(Path.of(Control.Lexer.dumpFile),
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            return new TokenDump(file, true, Control.Lexer.dumpFormat);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the writer thread.
+    private void drain() {
+        try {
+            while (true) {
+                ByteBuffer b = this.full.take();
+                if (b.position() == 0)
+                    return;
+                b.flip();
+                try {
+                    while (b.hasRemaining())
+                        this.out.write(b);
+                } catch (IOException e) {
+                    // keep draining, so the lexer never blocks
+                    this.failure = e;
+                }
+                b.clear();
+                this.free.put(b);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // hand the current buffer to the writer and take an empty one.
+    private void flush() {
+        try {
+            this.full.put(this.buffer);
+            this.buffer = this.free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    // make room for "n" more bytes.
+    private void reserve(int n) {
+        if (this.buffer.remaining() < n)
+            flush();
+    }
+
+    private void putInt(int n) {
+        if (n < 0) {
+            this.buffer.put((byte) '-');
+            n = -n;
+        }
+        int start = this.buffer.position();
+        do {
+            this.buffer.put((byte) ('0' + n % 10));
+            n /= 10;
+        } while (n != 0);
+        // the digits came out backwards
+        for (int i = start, j = this.buffer.position() - 1; i < j; i++, j--) {
+            byte t = this.buffer.get(i);
+            this.buffer.put(i, this.buffer.get(j));
+            this.buffer.put(j, t);
+        }
+    }
+
+    // the bytes from "offset" to "offset + length" of "source".
+    private void putBytes(byte[] source, int offset, int length) {
+        while (length > 0) {
+            if (!this.buffer.hasRemaining())
+                flush();
+            int n = Math.min(length, this.buffer.remaining());
+            this.buffer.put(source, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    // dump one token; its lexeme, if it has one, is found in "source".
+    public void add(byte[] source, Token.Kind kind, int offset, int length, int row, int col) {
+        boolean lexeme = kind == Token.Kind.ID || kind == Token.Kind.INTEGER_LITERAL;
+        reserve(slack);
+        switch (this.format) {
+            case Text -> {
+                putInt(row);
+                this.buffer.put((byte) ':');
+                putInt(col);
+                this.buffer.put((byte) ' ');
+                this.buffer.put(kindNames[kind.ordinal()]);
+                if (lexeme) {
+                    this.buffer.put((byte) ' ');
+                    putBytes(source, offset, length);
+                }
+                reserve(1);
+                this.buffer.put((byte) '\n');
+            }
+            case Binary -> {
+                this.buffer.put((byte) kind.ordinal());
+                this.buffer.putInt(row);
+                this.buffer.putInt(col);
+                if (lexeme) {
+                    this.buffer.putInt(length);
+                    putBytes(source, offset, length);
+                }
+            }
+        }
+    }
+
+    // dump every token of "tokens".
+    public void add(TokenBuffer tokens) {
+        byte[] source = tokens.source();
+        for (int i = 0; i < tokens.size(); i++)
+            add(source, tokens.kind(i), tokens.offset(i), tokens.length(i), tokens.row(i), tokens.col(i));
+    }
+
+    // write out what is left and wait for the writer to finish.
+    @Override
+    public void close() {
+        try {
+            if (this.buffer.position() != 0)
+                flush();
+            this.full.put(this.buffer);
+            this.writer.join();
+            if (this.closeOut)
+                this.out.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (this.failure == null)
+                this.failure = e;
+        }
+        if (this.failure != null)
+            throw new UncheckedIOException(this.failure);
+    }
+}
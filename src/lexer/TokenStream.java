@@ -0,0 +1,247 @@
+package lexer;
+
+import java.nio.charset.StandardCharsets;
+
+// A token stream is the parser's only view of the tokens: a bounded
+// ring buffer, refilled in batches either straight from a "Lexer" or
+// from an already scanned "TokenBuffer", that offers any lookahead
+// below its capacity through "peek(k)".
+// Tokens are held in primitive columns, as in "TokenBuffer", so
+// buffering them allocates nothing. "push()" puts a synthetic token
+// in front of the current one, for error recovery.
+public final class TokenStream implements AutoCloseable {
+    private static final Token.Kind[] kinds = Token.Kind.values();
+    private static final int capacity = 64;
+    private static final int mask = capacity - 1;
+    private static final int batch = 32;
+
+    // exactly one of these two feeds the stream
+    private final Lexer lexer;
+    private final TokenBuffer buffer;
+    // the next token of "buffer" to be copied in, and where to stop:
+    // the token at "limit" is copied in as an EOF
+    private int next = 0;
+    private final int limit;
+
+    private final byte[] source;
+    private final SymbolTable symbols;
+    private final LineIndex lines;
+
+    // the ring: columns as in "TokenBuffer", plus the number of each
+    // token in the whole stream (a synthetic token shares the number
+    // of the token it was pushed in front of)
+    private final byte[] kind = new byte[capacity];
+    private final int[] offset = new int[capacity];
+    private final int[] length = new int[capacity];
+    private final int[] row = new int[capacity];
+    private final int[] col = new int[capacity];
+    private final int[] value = new int[capacity];
+    private final int[] number = new int[capacity];
+    // slot of the current token, and the number of tokens buffered
+    private int head = 0;
+    private int count = 0;
+    // number of the next token to be put
+    private int total = 0;
+    // has the EOF token been buffered?
+    private boolean eof = false;
+
+    public TokenStream(Lexer lexer) {
+        this.lexer = lexer;
+        this.buffer = null;
+        this.limit = 0;
+        this.source = lexer.source();
+        this.symbols = lexer.symbols();
+        this.lines = lexer.lines();
+        ensure(1);
+    }
+
+    public TokenStream(TokenBuffer buffer) {
+        this(buffer, 0, buffer.size() - 1);
+    }
+
+    // a stream over the tokens "from" to "to" (excluded) of "buffer",
+    // ended by an EOF in place of the token at "to". Tokens keep their
+    // index in the buffer as their number.
+    public TokenStream(TokenBuffer buffer, int from, int to) {
+        this.lexer = null;
+        this.buffer = buffer;
+        this.next = from;
+        this.limit = to;
+        this.total = from;
+        this.source = buffer.source();
+        this.symbols = buffer.symbols();
+        this.lines = buffer.lines();
+        ensure(1);
+    }
+
+    // append a token at the tail of the ring.
+    void put(Token.Kind kind, int offset, int length, int row, int col, int value) {
+        int slot = (this.head + this.count) & mask;
+        this.kind[slot] = (byte) kind.ordinal();
+        this.offset[slot] = offset;
+        this.length[slot] = length;
+        this.row[slot] = row;
+        this.col[slot] = col;
+        this.value[slot] = value;
+        this.number[slot] = this.total++;
+        this.count++;
+        if (kind == Token.Kind.EOF)
+            this.eof = true;
+    }
+
+    // make sure "n" tokens are buffered, unless the input ends first.
+    private void ensure(int n) {
+        while (this.count < n && !this.eof) {
+            int room = Math.min(batch, capacity - this.count);
+            if (this.lexer != null) {
+                this.lexer.fill(this, room);
+            } else {
+                int end = Math.min(this.next + room, this.limit);
+                for (int i = this.next; i < end; i++) {
+                    put(this.buffer.kind(i), this.buffer.offset(i), this.buffer.length(i),
+                            this.buffer.row(i), this.buffer.col(i), this.buffer.value(i));
+                }
+                this.next = end;
+                if (end == this.limit && this.count < capacity) {
+                    int i = this.limit;
+                    put(Token.Kind.EOF, this.buffer.offset(i), 0, this.buffer.row(i), this.buffer.col(i), -1);
+                }
+            }
+        }
+    }
+
+    // slot of the k-th token after the current one; past the end of
+    // the input, this is the slot of the EOF token.
+    private int slot(int k) {
+        if (k >= capacity)
+            throw new IllegalArgumentException(STR."lookahead too deep: \{k}");
+        ensure(k + 1);
+        return (this.head + Math.min(k, this.count - 1)) & mask;
+    }
+
+    public Token.Kind peek(int k) {
+        return kinds[this.kind[slot(k)]];
+    }
+
+    public Token.Kind kind() {
+        return kinds[this.kind[this.head]];
+    }
+
+    public int offset() {
+        return this.offset[this.head];
+    }
+
+    public int row() {
+        return this.row[this.head];
+    }
+
+    public int col() {
+        return this.col[this.head];
+    }
+
+    // the symbol id of the current token, if it is an identifier;
+    // -1 otherwise.
+    public int symbol() {
+        return (kind() == Token.Kind.ID) ? this.value[this.head] : -1;
+    }
+
+    // the value of the current token, if it is an integer literal.
+    public int value() {
+        return this.value[this.head];
+    }
+
+    // the number of the current token in the whole stream; for a
+    // stream over a token buffer, its index in that buffer.
+    public int index() {
+        return this.number[this.head];
+    }
+
+    public String lexeme() {
+        if (kind() == Token.Kind.ID)
+            return this.symbols.name(symbol());
+        return new String(this.source, offset(), this.length[this.head], StandardCharsets.ISO_8859_1);
+    }
+
+    // was the current token put in by "push()"? Only synthetic
+    // tokens and EOF are empty.
+    public boolean synthetic() {
+        return this.length[this.head] == 0 && kind() != Token.Kind.EOF;
+    }
+
+    // the source line of the current token.
+    public String line() {
+        return this.lines.line(row());
+    }
+
+    public SymbolTable symbols() {
+        return this.symbols;
+    }
+
+    // the number of diagnostics the lexer printed while scanning the
+    // tokens, so far.
+    public int errors() {
+        return this.lexer != null ? this.lexer.errors() : this.buffer.errors();
+    }
+
+    // move to the next token; the stream never moves past EOF.
+    public void advance() {
+        ensure(2);
+        if (this.count > 1) {
+            this.head = (this.head + 1) & mask;
+            this.count--;
+        }
+    }
+
+    // on a stream over a token buffer, if the current token is a "{"
+    // matched by a "}" before the end of the stream, move just past
+    // that "}" and return true; otherwise stay put and return false.
+    public boolean skipBlock() {
+        if (this.buffer == null || kind() != Token.Kind.LBRACE)
+            return false;
+        int depth = 0;
+        for (int i = index(); i < this.limit; i++) {
+            switch (this.buffer.kind(i)) {
+                case LBRACE -> depth++;
+                case RBRACE -> depth--;
+                default -> {
+                    continue;
+                }
+            }
+            if (depth == 0) {
+                this.head = 0;
+                this.count = 0;
+                this.next = i + 1;
+                this.total = i + 1;
+                this.eof = false;
+                ensure(1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // done with the stream: finish the dump of the tokens pulled
+    // from the lexer, if the parser stopped short of EOF.
+    @Override
+    public void close() {
+        if (this.lexer != null)
+            this.lexer.close();
+    }
+
+    // put a synthetic token of kind "kind" in front of the current
+    // one; it takes the position of the token it hides.
+    public void push(Token.Kind kind) {
+        if (this.count == capacity)
+            throw new IllegalStateException("token stream full");
+        int old = this.head;
+        this.head = (this.head - 1) & mask;
+        this.kind[this.head] = (byte) kind.ordinal();
+        this.offset[this.head] = this.offset[old];
+        this.length[this.head] = 0;
+        this.row[this.head] = this.row[old];
+        this.col[this.head] = this.col[old];
+        this.value[this.head] = -1;
+        this.number[this.head] = this.number[old];
+        this.count++;
+    }
+}
@@ -0,0 +1,362 @@
+package parser;
+
+import ast.AstArena;
+import control.Control;
+import lexer.Lexer;
+import lexer.Token;
+import lexer.TokenBuffer;
+import lexer.TokenStream;
+import util.IntList;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// Parses a file, then parses it again after each edit of its text,
+// reusing what the edit did not touch, for tools that reparse a file
+// on every change.
+// An edit scans again only the lines it touches (see
+// "TokenBuffer.edit()"). Of the tokens scanned again, those the same
+// as before are left out, and the tokens that changed are parsed
+// again as part of the smallest enclosing unit, from the innermost:
+//   - the statements of a method body, or of a block in it, that the
+//     changed tokens fall in, cut at each ";" or "}" not followed by
+//     "else";
+//   - the whole method;
+//   - the whole class.
+// A unit is parsed by a quiet parser, into the same arena, and put in
+// place of the old one only if it parses without an error, and ends
+// exactly where the old one did. As the tokens around it are the
+// same, and so is the state the parser would reach it in, the tree is
+// then that of a full parse. Otherwise, and whenever the last parse
+// had errors, the whole file is parsed again, reporting its errors.
+// Replaced nodes are left in the arena; once they take as much room
+// as the tree, the arena is compacted.
+public class IncrementalParser {
+    // how the last edit was handled
+    public enum Reparsed {
+        Nothing,
+        Statements,
+        Method,
+        Class,
+        Program,
+    }
+
+    private final String fileName;
+    private TokenBuffer tokens;
+    private AstArena nodes;
+    private boolean clean;
+    // the size of the arena when it last held no unused nodes
+    private int liveSize;
+    private Reparsed reparsed;
+
+    public IncrementalParser(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public AstArena parse() throws IOException {
+        return full(Lexer.readSource(this.fileName));
+    }
+
+    public byte[] source() {
+        return this.tokens.source();
+    }
+
+    public Reparsed reparsed() {
+        return this.reparsed;
+    }
+
+    private AstArena full(byte[] source) {
+        Parser parser = new Parser(this.fileName);
+        parser.keepTokens = true;
+        parser.bodies = Control.Parser.Bodies.Eager;
+        this.nodes = parser.parseArena(source);
+        this.tokens = parser.buffer;
+        this.clean = parser.errors == 0;
+        this.liveSize = this.nodes.size();
+        this.reparsed = Reparsed.Program;
+        return this.nodes;
+    }
+
+    // a quiet parser over the tokens "from" to "to" (excluded).
+    private Parser parser(int from, int to) {
+        Parser parser = new Parser(this.fileName, new TokenStream(this.tokens, from, to), this.nodes);
+        parser.bodies = Control.Parser.Bodies.Eager;
+        return parser;
+    }
+
+    // the tokens as they were before an edit, in which the tokens
+    // "from" to "from + replaced.size()" were replaced, and those
+    // after moved by "shift".
+    private record Old(TokenBuffer tokens, TokenBuffer replaced, int from, int shift) {
+        Token.Kind kind(int i) {
+            if (i < this.from)
+                return this.tokens.kind(i);
+            if (i < this.from + this.replaced.size())
+                return this.replaced.kind(i - this.from);
+            return this.tokens.kind(i + this.shift);
+        }
+
+        int value(int i) {
+            if (i < this.from)
+                return this.tokens.value(i);
+            if (i < this.from + this.replaced.size())
+                return this.replaced.value(i - this.from);
+            return this.tokens.value(i + this.shift);
+        }
+
+        int size() {
+            return this.tokens.size() - this.shift;
+        }
+    }
+
+    // replace the "removed" bytes at "offset" by "inserted", and parse
+    // again; return the tree.
+    public AstArena edit(int offset, int removed, String inserted) {
+        byte[] source = source();
+        if (offset < 0 || removed < 0 || offset + removed > source.length)
+            throw new IllegalArgumentException(STR."edit out of range: \{offset}+\{removed}");
+        TokenBuffer replaced = this.tokens.edit(this.fileName, offset, removed,
+                inserted.getBytes(StandardCharsets.ISO_8859_1));
+        int from = this.tokens.scannedFrom();
+        int to = this.tokens.scannedTo();
+        for (int i = from; i < to; i++) {
+            // left unreported by the scan
+            if (this.tokens.kind(i) == Token.Kind.INTEGER_LITERAL && this.tokens.value(i) < 0)
+                return full(this.tokens.source());
+        }
+        if (!this.clean)
+            return full(this.tokens.source());
+        if (this.nodes.size() - this.liveSize > this.liveSize) {
+            this.nodes.compact();
+            this.liveSize = this.nodes.size();
+        }
+
+        // the tokens that changed: "from" to "to" now, to "oldTo" before
+        int shift = to - from - replaced.size();
+        Old old = new Old(this.tokens, replaced, from, shift);
+        int oldTo = from + replaced.size();
+        while (from < to && from < oldTo && this.tokens.kind(from) == old.kind(from)
+                && this.tokens.value(from) == old.value(from))
+            from++;
+        while (to > from && oldTo > from && this.tokens.kind(to - 1) == old.kind(oldTo - 1)
+                && this.tokens.value(to - 1) == old.value(oldTo - 1)) {
+            to--;
+            oldTo--;
+        }
+        if (from == to && from == oldTo) {
+            this.reparsed = Reparsed.Nothing;
+            return this.nodes;
+        }
+        if (reparse(old, from, oldTo, shift))
+            return this.nodes;
+        return full(this.tokens.source());
+    }
+
+    // the index just past the "}" matching the first "{" at or after
+    // "from" in "tokens", or -1 if a "}" or the end comes first.
+    private static int block(Old tokens, int from) {
+        int depth = 0;
+        for (int i = from; i < tokens.size() - 1; i++) {
+            switch (tokens.kind(i)) {
+                case LBRACE -> depth++;
+                case RBRACE -> {
+                    if (depth == 0)
+                        return -1;
+                    if (--depth == 0)
+                        return i + 1;
+                }
+                default -> {
+                }
+            }
+        }
+        return -1;
+    }
+
+    // parse the old tokens "from" to "oldTo" again, now "from" to
+    // "oldTo + shift", as part of the class or method around them;
+    // return false if there is none, or if it does not parse cleanly.
+    private boolean reparse(Old old, int from, int oldTo, int shift) {
+        // the class and method the first changed token is in, and the
+        // items of the method body before it (see "items()")
+        int depth = 0;
+        int clazz = -1;
+        int classStart = -1;
+        int method = -1;
+        int methodStart = -1;
+        boolean inClass = false;
+        boolean inMethod = false;
+        IntList bounds = null;
+        for (int i = 0; i < from; i++) {
+            Token.Kind kind = this.tokens.kind(i);
+            switch (kind) {
+                case CLASS -> {
+                    if (depth == 0) {
+                        clazz++;
+                        classStart = i;
+                        method = -1;
+                        inClass = true;
+                    }
+                }
+                case PUBLIC -> {
+                    if (depth == 1) {
+                        method++;
+                        methodStart = i;
+                        inMethod = true;
+                        bounds = null;
+                    }
+                }
+                case LBRACE -> {
+                    if (++depth == 2 && inMethod && bounds == null) {
+                        bounds = new IntList();
+                        bounds.add(i + 1);
+                    }
+                }
+                case RBRACE -> {
+                    if (depth > 0)
+                        depth--;
+                    if (depth == 1)
+                        inMethod = false;
+                    if (depth == 0)
+                        inClass = false;
+                }
+                case RETURN -> {
+                    if (depth == 2)
+                        bounds = null;
+                }
+                default -> {
+                }
+            }
+            if (depth == 2 && bounds != null && (kind == Token.Kind.SEMICOLON || kind == Token.Kind.RBRACE)
+                    && old.kind(i + 1) != Token.Kind.ELSE)
+                bounds.add(i + 1);
+        }
+        if (!inClass)
+            return false;
+        int program = this.nodes.root();
+        if (clazz > 0 && inMethod) {
+            int classNode = this.nodes.clazz(program, clazz - 1);
+            if (method >= this.nodes.methods(classNode))
+                return false;
+            if (bounds != null && reparseStatements(old, from, oldTo, shift, classNode, method,
+                    items(old, bounds, from, depth - 2, oldTo)))
+                return true;
+            int methodEnd = block(old, methodStart);
+            if (methodEnd >= oldTo) {
+                Parser parser = parser(methodStart, methodEnd + shift);
+                int node = parser.parseMethod();
+                if (parser.errors == 0 && parser.tokens.index() == methodEnd + shift) {
+                    this.nodes.replaceMethod(classNode, method, node);
+                    this.reparsed = Reparsed.Method;
+                    return true;
+                }
+            }
+        }
+        int classEnd = block(old, classStart);
+        if (classEnd < oldTo)
+            return false;
+        Parser parser = parser(classStart, classEnd + shift);
+        int node = clazz == 0 ? parser.parseMainClass() : parser.parseClassDecl();
+        if (parser.errors != 0 || parser.tokens.index() != classEnd + shift)
+            return false;
+        if (clazz == 0)
+            this.nodes.replaceMainClass(program, node);
+        else
+            this.nodes.replaceClass(program, clazz - 1, node);
+        this.reparsed = Reparsed.Class;
+        return true;
+    }
+
+    // go on cutting the old tokens into items, from token "i", at
+    // "depth" within the braces around the items: an item ends with a
+    // ";" or "}" not followed by "else", outside of braces, and its
+    // end is added to "bounds". Stop at the first end at or after
+    // "until", or at a "return" or "}" outside of braces; return
+    // "bounds".
+    private static IntList items(Old old, IntList bounds, int i, int depth, int until) {
+        for (; bounds.get(bounds.size() - 1) < until; i++) {
+            Token.Kind kind = old.kind(i);
+            if (depth == 0 && (kind == Token.Kind.RETURN || kind == Token.Kind.RBRACE))
+                break;
+            if (kind == Token.Kind.LBRACE)
+                depth++;
+            else if (kind == Token.Kind.RBRACE)
+                depth--;
+            else if (kind != Token.Kind.SEMICOLON)
+                continue;
+            if (depth == 0 && old.kind(i + 1) != Token.Kind.ELSE)
+                bounds.add(i + 1);
+        }
+        return bounds;
+    }
+
+    // parse the changed tokens as statements of the body of the given
+    // method, whose items are "bounds", or of a block in it.
+    private boolean reparseStatements(Old old, int from, int oldTo, int shift,
+                                      int classNode, int method, IntList bounds) {
+        int node = this.nodes.method(classNode, method);
+        int skip = this.nodes.locals(node);
+        int parent = -1;
+        int slot = -1;
+        while (true) {
+            // the items the changed tokens fall in, "lo" to "hi"
+            int n = bounds.size() - 1;
+            if (n < skip || from < bounds.get(skip) || oldTo > bounds.get(n)
+                    || n - skip > this.nodes.stms(node))
+                return false;
+            int lo = skip;
+            while (lo < n && bounds.get(lo + 1) <= from)
+                lo++;
+            int hi = n;
+            while (hi > lo && bounds.get(hi - 1) >= oldTo)
+                hi--;
+            // within a single block: look into it
+            if (hi == lo + 1) {
+                int stm = this.nodes.stm(node, lo - skip);
+                int start = bounds.get(lo);
+                int end = bounds.get(hi);
+                if (this.nodes.kind(stm) == AstArena.Kind.Block && old.kind(start) == Token.Kind.LBRACE
+                        && block(old, start) == end && from > start && oldTo < end) {
+                    IntList inner = new IntList();
+                    inner.add(start + 1);
+                    items(old, inner, start + 1, 0, end - 1);
+                    if (inner.size() - 1 == this.nodes.stms(stm) && inner.get(inner.size() - 1) == end - 1) {
+                        parent = node;
+                        slot = lo - skip;
+                        node = stm;
+                        bounds = inner;
+                        skip = 0;
+                        continue;
+                    }
+                }
+            }
+
+            int start = bounds.get(lo);
+            int end = bounds.get(hi) + shift;
+            Parser parser = parser(start, end);
+            IntList stms = parser.parseStatements();
+            if (parser.errors != 0 || parser.tokens.index() != end)
+                return false;
+            int first = lo - skip;
+            int last = hi - skip;
+            if (stms.size() == last - first) {
+                for (int i = 0; i < stms.size(); i++)
+                    this.nodes.replaceStm(node, first + i, stms.get(i));
+            } else {
+                IntList all = new IntList();
+                for (int i = 0; i < first; i++)
+                    all.add(this.nodes.stm(node, i));
+                for (int i = 0; i < stms.size(); i++)
+                    all.add(stms.get(i));
+                for (int i = last; i < this.nodes.stms(node); i++)
+                    all.add(this.nodes.stm(node, i));
+                if (parent < 0) {
+                    this.nodes.replaceMethod(classNode, method, this.nodes.methodDecl(node, all));
+                } else {
+                    this.nodes.replaceStm(parent, slot, this.nodes.block(all));
+                }
+            }
+            this.reparsed = Reparsed.Statements;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package parser;
+
+import ast.AstArena;
+import lexer.SymbolTable;
+import lexer.Token;
+import util.IntList;
+
+import java.util.Arrays;
+
+// The statements and expressions of "Parser", parsed on an explicit
+// stack, for "-parser iterative". Where "Parser" makes a recursive call
+// for a nested statement, parenthesis, index or argument, this pushes
+// a frame onto a heap-allocated stack, so the depth of nesting is
+// bounded by memory, not by the thread stack.
+//
+// Each state is a point in the matching method of "Parser", and does
+// what that method does from there up to its next call: tokens are
+// eaten, nodes built and errors reported and recovered from in the
+// same order, so both engines give the same tree and the same
+// diagnostics.
+class IterativeParser {
+    // what each state keeps in the fields "a" to "d" and "list" of its
+    // frame is given with it
+    private enum State {
+        // parseStatement()
+        Statement,
+        // { Statement* }, list: the statements
+        BlockLoop,
+        BlockItem,
+        // if ( Exp ) Statement else Statement, a: cond, b: then
+        If,
+        IfCond,
+        IfThen,
+        IfElse,
+        // while ( Exp ) Statement, a: cond
+        While,
+        WhileCond,
+        WhileBody,
+        // System.out.println ( Exp ) ; or id = Exp ; or id [ Exp ] = Exp ;
+        // a: id, b: index
+        Id,
+        Print,
+        Assign,
+        AssignIndex,
+        AssignArray,
+        // parseExp(floor), a: floor, b: left, c: ceiling, d: operator
+        Exp,
+        ExpLeft,
+        ExpLoop,
+        ExpRight,
+        // parseUnaryExp() and the parseAtomExp() and parseNotExp() it
+        // calls, a: how many "!", b: exp, c: called method, list: args
+        Unary,
+        Paren,
+        NewIntArray,
+        Postfix,
+        Arg,
+        CallEnd,
+        Index,
+        Nots,
+    }
+
+    // a suspended call to one of the methods above
+    private static final class Frame {
+        State state;
+        int a, b, c, d;
+        IntList list;
+    }
+
+    private final Parser parser;
+    private final AstArena nodes;
+    // frames are kept when popped, and reused
+    private Frame[] frames = new Frame[64];
+    private int depth = 0;
+    // what the last call to return gave back
+    private int value;
+
+    IterativeParser(Parser parser) {
+        this.parser = parser;
+        this.nodes = parser.nodes;
+    }
+
+    private Frame push(State state) {
+        if (depth == frames.length)
+            frames = Arrays.copyOf(frames, depth << 1);
+        Frame frame = frames[depth];
+        if (frame == null)
+            frame = frames[depth] = new Frame();
+        depth++;
+        frame.state = state;
+        return frame;
+    }
+
+    // return "v" from the frame on top.
+    private void ret(int v) {
+        value = v;
+        depth--;
+        frames[depth].list = null;
+    }
+
+    private void statement() {
+        push(State.Statement);
+    }
+
+    private void exp(int floor) {
+        push(State.Exp).a = floor;
+    }
+
+    private Token.Kind current() {
+        return parser.current;
+    }
+
+    // run frames until the stack is empty.
+    private void run() {
+        while (depth > 0)
+            step(frames[depth - 1]);
+    }
+
+    int parseExp() {
+        depth = 0;
+        exp(0);
+        run();
+        return value;
+    }
+
+    int parseStatement() {
+        depth = 0;
+        statement();
+        run();
+        return value;
+    }
+
+    // return "v" from a statement, after recovering from its errors.
+    private void finish(int v) {
+        parser.sync(Parser.afterStatement, Token.Kind.SEMICOLON);
+        ret(v);
+    }
+
+    private void step(Frame f) {
+        boolean recovering = parser.recovering;
+        switch (f.state) {
+            case Statement -> {
+                if (recovering) {
+                    ret(-1);
+                    return;
+                }
+                switch (current()) {
+                    case LBRACE -> {
+                        parser.advance();
+                        f.list = new IntList();
+                        f.state = State.BlockLoop;
+                    }
+                    case IF -> f.state = State.If;
+                    case WHILE -> f.state = State.While;
+                    case ID -> f.state = State.Id;
+                    default -> {
+                        parser.expected("statement");
+                        finish(-1);
+                    }
+                }
+            }
+            // parseStatements()
+            case BlockLoop -> {
+                if (!recovering && Parser.startsStatement(current())) {
+                    f.state = State.BlockItem;
+                    statement();
+                } else {
+                    parser.eatToken(Token.Kind.RBRACE);
+                    finish(parser.recovering ? -1 : nodes.block(f.list));
+                }
+            }
+            case BlockItem -> {
+                if (value >= 0)
+                    f.list.add(value);
+                f.state = State.BlockLoop;
+            }
+            case If -> {
+                parser.advance();
+                parser.eatToken(Token.Kind.LPAREN);
+                f.state = State.IfCond;
+                exp(0);
+            }
+            case IfCond -> {
+                f.a = value;
+                parser.eatToken(Token.Kind.RPAREN);
+                f.state = State.IfThen;
+                statement();
+            }
+            case IfThen -> {
+                f.b = value;
+                if (current().equals(Token.Kind.ELSE)) {
+                    parser.eatToken(Token.Kind.ELSE);
+                    f.state = State.IfElse;
+                    statement();
+                } else {
+                    finish(recovering || f.b < 0 ? -1 : nodes.ifStm(f.a, f.b, -1));
+                }
+            }
+            case IfElse -> {
+                if (value < 0)
+                    finish(-1);
+                else
+                    finish(recovering || f.b < 0 ? -1 : nodes.ifStm(f.a, f.b, value));
+            }
+            case While -> {
+                parser.advance();
+                parser.eatToken(Token.Kind.LPAREN);
+                f.state = State.WhileCond;
+                exp(0);
+            }
+            case WhileCond -> {
+                f.a = value;
+                parser.eatToken(Token.Kind.RPAREN);
+                f.state = State.WhileBody;
+                statement();
+            }
+            case WhileBody -> finish(recovering || value < 0 ? -1 : nodes.whileStm(f.a, value));
+            case Id -> {
+                if (parser.tokens.symbol() == SymbolTable.SYSTEM) {
+                    parser.advance();
+                    if (parser.eatToken(Token.Kind.DOT) && parser.tokens.symbol() == SymbolTable.OUT) {
+                        parser.advance();
+                        if (parser.eatToken(Token.Kind.DOT) && parser.tokens.symbol() == SymbolTable.PRINTLN) {
+                            parser.advance();
+                            parser.eatToken(Token.Kind.LPAREN);
+                            f.state = State.Print;
+                            exp(0);
+                            return;
+                        }
+                    }
+                    if (parser.recovering) {
+                        finish(-1);
+                        return;
+                    }
+                }
+                f.a = parser.tokens.symbol();
+                parser.advance();
+                if (current().equals(Token.Kind.LBRACKET)) {
+                    parser.advance();
+                    f.state = State.AssignIndex;
+                } else {
+                    parser.eatToken(Token.Kind.ASSIGN);
+                    f.state = State.Assign;
+                }
+                exp(0);
+            }
+            case Print -> {
+                int exp = value;
+                parser.eatToken(Token.Kind.RPAREN);
+                parser.eatToken(Token.Kind.SEMICOLON);
+                finish(parser.recovering ? -1 : nodes.unary(AstArena.Kind.Print, exp));
+            }
+            case Assign -> {
+                int exp = value;
+                parser.eatToken(Token.Kind.SEMICOLON);
+                finish(parser.recovering ? -1 : nodes.assign(f.a, exp));
+            }
+            case AssignIndex -> {
+                f.b = value;
+                parser.eatToken(Token.Kind.RBRACKET);
+                parser.eatToken(Token.Kind.ASSIGN);
+                f.state = State.AssignArray;
+                exp(0);
+            }
+            case AssignArray -> {
+                int exp = value;
+                parser.eatToken(Token.Kind.SEMICOLON);
+                finish(parser.recovering ? -1 : nodes.assignArray(f.a, f.b, exp));
+            }
+            case Exp -> {
+                if (recovering) {
+                    ret(-1);
+                    return;
+                }
+                f.state = State.ExpLeft;
+                push(State.Unary);
+            }
+            case ExpLeft -> {
+                if (recovering) {
+                    ret(-1);
+                    return;
+                }
+                f.b = value;
+                f.c = Parser.noLimit;
+                f.state = State.ExpLoop;
+            }
+            case ExpLoop -> {
+                int power = Parser.bindingPower[current().ordinal()];
+                if (power > f.a && power < f.c) {
+                    f.d = current().ordinal();
+                    parser.advance();
+                    f.state = State.ExpRight;
+                    exp(power);
+                } else {
+                    ret(f.b);
+                }
+            }
+            case ExpRight -> {
+                if (recovering) {
+                    ret(-1);
+                    return;
+                }
+                f.b = nodes.bop(f.b, Parser.bopName[f.d], value);
+                f.c = Parser.bindingPower[f.d];
+                f.state = State.ExpLoop;
+            }
+            case Unary -> {
+                f.a = 0;
+                while (current().equals(Token.Kind.NOT)) {
+                    parser.advance();
+                    f.a++;
+                }
+                unary(f);
+            }
+            case Paren -> {
+                int exp = value;
+                parser.eatToken(Token.Kind.RPAREN);
+                postfix(f, exp);
+            }
+            case NewIntArray -> {
+                int exp = value;
+                parser.eatToken(Token.Kind.RBRACKET);
+                if (parser.recovering)
+                    ret(-1);
+                else
+                    postfix(f, nodes.unary(AstArena.Kind.NewIntArray, exp));
+            }
+            case Postfix -> {
+                if (current().equals(Token.Kind.DOT)) {
+                    parser.advance();
+                    if (current().equals(Token.Kind.LENGTH)) {
+                        parser.advance();
+                        f.b = nodes.unary(AstArena.Kind.Length, f.b);
+                        f.state = State.Nots;
+                        return;
+                    }
+                    f.c = parser.eatId();
+                    parser.eatToken(Token.Kind.LPAREN);
+                    f.list = new IntList();
+                    if (current().equals(Token.Kind.RPAREN)) {
+                        f.state = State.CallEnd;
+                    } else {
+                        f.state = State.Arg;
+                        exp(0);
+                    }
+                } else if (current().equals(Token.Kind.LBRACKET)) {
+                    parser.advance();
+                    f.state = State.Index;
+                    exp(0);
+                } else {
+                    f.state = State.Nots;
+                }
+            }
+            case Arg -> {
+                f.list.add(value);
+                if (!recovering && current().equals(Token.Kind.COMMA)) {
+                    parser.advance();
+                    exp(0);
+                } else {
+                    f.state = State.CallEnd;
+                }
+            }
+            case CallEnd -> {
+                parser.eatToken(Token.Kind.RPAREN);
+                if (parser.recovering) {
+                    ret(-1);
+                    return;
+                }
+                postfix(f, nodes.call(f.b, f.c, f.list));
+                f.list = null;
+            }
+            case Index -> {
+                int index = value;
+                parser.eatToken(Token.Kind.RBRACKET);
+                if (parser.recovering)
+                    ret(-1);
+                else
+                    postfix(f, nodes.arraySelect(f.b, index));
+            }
+            case Nots -> {
+                int exp = f.b;
+                for (int n = f.a; n > 0; n--)
+                    exp = nodes.unary(AstArena.Kind.Not, exp);
+                ret(exp);
+            }
+        }
+    }
+
+    // go on after "exp", or give up if it is broken.
+    private void postfix(Frame f, int exp) {
+        if (parser.recovering) {
+            ret(-1);
+            return;
+        }
+        f.b = exp;
+        f.state = State.Postfix;
+    }
+
+    // parseAtomExp(), up to its first nested expression, if any.
+    private void unary(Frame f) {
+        switch (current()) {
+            case LPAREN -> {
+                parser.advance();
+                f.state = State.Paren;
+                exp(0);
+            }
+            case ID -> {
+                int id = parser.tokens.symbol();
+                parser.advance();
+                postfix(f, nodes.named(AstArena.Kind.Id, id));
+            }
+            case NEW -> {
+                parser.advance();
+                switch (current()) {
+                    case INT -> {
+                        parser.advance();
+                        parser.eatToken(Token.Kind.LBRACKET);
+                        f.state = State.NewIntArray;
+                        exp(0);
+                    }
+                    case ID -> {
+                        int id = parser.tokens.symbol();
+                        parser.advance();
+                        parser.eatToken(Token.Kind.LPAREN);
+                        parser.eatToken(Token.Kind.RPAREN);
+                        if (parser.recovering)
+                            ret(-1);
+                        else
+                            postfix(f, nodes.named(AstArena.Kind.NewObject, id));
+                    }
+                    default -> {
+                        parser.expected("INT or ID");
+                        ret(-1);
+                    }
+                }
+            }
+            case INTEGER_LITERAL -> {
+                int num = parser.tokens.value();
+                parser.advance();
+                postfix(f, nodes.intLiteral(num));
+            }
+            case TRUE -> {
+                parser.advance();
+                postfix(f, nodes.leaf(AstArena.Kind.True));
+            }
+            case FALSE -> {
+                parser.advance();
+                postfix(f, nodes.leaf(AstArena.Kind.False));
+            }
+            case THIS -> {
+                parser.advance();
+                postfix(f, nodes.leaf(AstArena.Kind.This));
+            }
+            default -> {
+                parser.expected("expression");
+                ret(-1);
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package parser;
+
+import ast.AstArena;
+import lexer.Token;
+import lexer.TokenBuffer;
+import lexer.TokenStream;
+import util.IntList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+// Parses the class declarations after the main class on a fork/join
+// pool, for "-parallel-classes", or the method bodies skipped by
+// "-bodies parallel". The class declarations are found by a scan of
+// the token buffer, matching braces, that cuts it at each "class"
+// outside of any braces. Each part is then parsed by a quiet "Parser"
+// over just that part, into the arena of its task.
+// The parser of the whole program still goes through the parts in
+// order: where a worker parsed a part without an error, to the very
+// end of it, the worker's nodes are appended to its arena and it
+// skips the part; anywhere else, it parses on by itself. As a part
+// parsed without an error comes out the same wherever it is parsed,
+// the arena and the error messages are exactly those of a serial
+// parse.
+class ParallelParser {
+    private final Parser parser;
+    private final TokenBuffer buffer;
+    private final ForkJoinPool pool;
+
+    // the work of one task: the parts "first" to "first + count"
+    private static final class Batch {
+        final int first;
+        final AstArena nodes;
+        // for each part, its words in "nodes", what the rule returned,
+        // and whether it was parsed without an error up to its end
+        final int[] from;
+        final int[] to;
+        final Object[] results;
+        final boolean[] clean;
+
+        Batch(int first, int count, AstArena nodes) {
+            this.first = first;
+            this.nodes = nodes;
+            this.from = new int[count];
+            this.to = new int[count];
+            this.results = new Object[count];
+            this.clean = new boolean[count];
+        }
+    }
+
+    // the part each task starts at, then the number of parts
+    private int[] firsts;
+    private List<ForkJoinTask<Batch>> batches;
+
+    ParallelParser(Parser parser, TokenBuffer buffer) {
+        this.parser = parser;
+        this.buffer = buffer;
+        this.pool = ForkJoinPool.commonPool();
+    }
+
+    // the index of each "class" token outside of braces, but the
+    // first one, which starts the main class; then the index of EOF.
+    private int[] split() {
+        IntList starts = new IntList();
+        int depth = 0;
+        boolean main = true;
+        int eof = this.buffer.size() - 1;
+        for (int i = 0; i < eof; i++) {
+            switch (this.buffer.kind(i)) {
+                case LBRACE -> depth++;
+                case RBRACE -> depth = Math.max(depth - 1, 0);
+                case CLASS -> {
+                    if (depth == 0 && !main)
+                        starts.add(i);
+                    main = false;
+                }
+                default -> {
+                }
+            }
+        }
+        starts.add(eof);
+        int[] result = new int[starts.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = starts.get(i);
+        return result;
+    }
+
+    private Batch parse(int[] from, int[] to, int first, int count, Function<Parser, Object> rule) {
+        Batch batch = new Batch(first, count, new AstArena(this.buffer.symbols()));
+        for (int i = 0; i < count; i++) {
+            int end = to[first + i];
+            Parser worker = new Parser(this.parser.inputFileName,
+                    new TokenStream(this.buffer, from[first + i], end), batch.nodes);
+            worker.bodies = this.parser.bodies;
+            batch.from[i] = batch.nodes.size();
+            batch.results[i] = rule.apply(worker);
+            batch.to[i] = batch.nodes.size();
+            batch.clean[i] = worker.errors == 0 && worker.tokens.index() == end;
+        }
+        return batch;
+    }
+
+    // parse the tokens "from[k]" to "to[k]" (excluded) with "rule",
+    // for each part k, in tasks of consecutive parts.
+    private void fork(int[] from, int[] to, Function<Parser, Object> rule) {
+        // a type "String" is named by a symbol interned on its first
+        // use; intern it now, so that workers only look symbols up
+        this.buffer.symbols().intern("String");
+        int parts = from.length;
+        int tasks = Math.min(parts, this.pool.getParallelism() * 4);
+        this.firsts = new int[tasks + 1];
+        for (int k = 1; k <= tasks; k++)
+            this.firsts[k] = (int) ((long) parts * k / tasks);
+        this.batches = new ArrayList<>();
+        for (int k = 0; k < tasks; k++) {
+            int first = this.firsts[k];
+            int count = this.firsts[k + 1] - first;
+            this.batches.add(this.pool.submit(() -> parse(from, to, first, count, rule)));
+        }
+    }
+
+    // the batch of part "part", once it is done.
+    private Batch batch(int part) {
+        int low = 0;
+        int high = this.batches.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (this.firsts[mid] <= part)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return this.batches.get(low).join();
+    }
+
+    // append the words of part "part" to the parser's arena, and
+    // return by how much its handles moved.
+    private int merge(Batch batch, int part) {
+        int i = part - batch.first;
+        int base = this.parser.nodes.size();
+        this.parser.nodes.append(batch.nodes, batch.from[i], batch.to[i]);
+        return base - batch.from[i];
+    }
+
+    private static IntList shift(IntList handles, int shift) {
+        IntList result = new IntList();
+        for (int i = 0; i < handles.size(); i++)
+            result.add(handles.get(i) < 0 ? -1 : handles.get(i) + shift);
+        return result;
+    }
+
+    IntList parseClassDecls() {
+        int[] starts = split();
+        int parts = starts.length - 1;
+        int[] from = new int[parts];
+        int[] to = new int[parts];
+        for (int k = 0; k < parts; k++) {
+            from[k] = starts[k];
+            to[k] = starts[k + 1];
+        }
+        fork(from, to, Parser::parseClassDecl);
+
+        IntList classes = new IntList();
+        int part = 0;
+        while (this.parser.current.equals(Token.Kind.CLASS)) {
+            int at = this.parser.tokens.index();
+            while (part < parts && starts[part] < at)
+                part++;
+            if (part < parts && starts[part] == at) {
+                Batch batch = batch(part);
+                int i = part - batch.first;
+                if (batch.clean[i]) {
+                    classes.add((Integer) batch.results[i] + merge(batch, part));
+                    this.parser.tokens = new TokenStream(this.buffer, starts[part + 1], starts[parts]);
+                    this.parser.current = this.parser.tokens.kind();
+                    continue;
+                }
+            }
+            classes.add(this.parser.parseClassDecl());
+        }
+        return classes;
+    }
+
+    // parse every skipped method body, and put each method in place
+    // of its lazy one.
+    void forceBodies() {
+        AstArena nodes = this.parser.nodes;
+        int program = nodes.root();
+        IntList classes = new IntList();
+        IntList indices = new IntList();
+        IntList lazy = new IntList();
+        for (int c = 0; c < nodes.classes(program); c++) {
+            int clazz = nodes.clazz(program, c);
+            for (int i = 0; i < nodes.methods(clazz); i++) {
+                int method = nodes.method(clazz, i);
+                if (nodes.kind(method) == AstArena.Kind.LazyMethodDecl) {
+                    classes.add(clazz);
+                    indices.add(i);
+                    lazy.add(method);
+                }
+            }
+        }
+        int parts = lazy.size();
+        int[] from = new int[parts];
+        int[] to = new int[parts];
+        for (int k = 0; k < parts; k++) {
+            from[k] = nodes.bodyFrom(lazy.get(k));
+            to[k] = nodes.bodyTo(lazy.get(k));
+        }
+        fork(from, to, Parser::parseMethodBody);
+
+        for (int k = 0; k < parts; k++) {
+            Batch batch = batch(k);
+            int i = k - batch.first;
+            if (!batch.clean[i]) {
+                this.parser.parseBody(classes.get(k), indices.get(k));
+                continue;
+            }
+            Parser.Body body = (Parser.Body) batch.results[i];
+            int shift = merge(batch, k);
+            int method = nodes.methodBody(lazy.get(k), shift(body.locals(), shift),
+                    shift(body.stms(), shift), body.retExp() < 0 ? -1 : body.retExp() + shift);
+            nodes.replaceMethod(classes.get(k), indices.get(k), method);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package parser;
+
+import ast.AstArena;
+import control.Control;
+import lexer.SymbolTable;
+import lexer.Token;
+import lexer.TokenBuffer;
+import util.ByteList;
+import util.ByteReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+// The parse cache of "-cache": a directory with one entry for each
+// file parsed without an error, named by a hash of its text and of
+// the compiler, and holding the text, its token buffer and its tree.
+// A file whose entry is there, with the same text, is loaded instead
+// of lexed and parsed.
+// An entry is the header: the magic bytes "TPC4", the format, the
+// hash of the compiler, the hash of the text and its length, as
+// little-endian ints and longs; then the text, the string table, the
+// number of bytes of the tokens, the tokens and the tree, as
+// "SymbolTable.write()", "TokenBuffer.write()" and "AstArena.write()"
+// put them. The tokens are decoded only if the parse would have kept
+// them. An entry whose header or text does not match is a miss.
+// The tree is kept as the words of its arena, not as an AST image:
+// read in one copy, a hit on a 1.7 MB file takes 70 ms, where
+// decoding an image took 60 ms more at the start of a run.
+// An entry is written to a file of its own, then renamed, so a run
+// never sees one half-written. Its modification time is that of its
+// last use; once the entries take more room than "-cache-size", the
+// least recently used are removed, down to three quarters of it. The
+// room they take is listed at the first store of a run, then kept
+// up to date by the stores and removals of the run.
+public class ParseCache {
+    private static final int magic = 0x34435054;
+    // change when the encoding of tokens or trees changes
+    private static final int format = 4;
+    // the compiler, as far as entries depend on it: the format and
+    // the kinds of tokens and of nodes
+    private static final long compiler;
+
+    static {
+        StringBuilder names = new StringBuilder().append(format);
+        for (Token.Kind k : Token.Kind.values())
+            names.append(' ').append(k.name());
+        for (AstArena.Kind k : AstArena.Kind.values())
+            names.append(' ').append(k.name());
+        byte[] bytes = names.toString().getBytes(StandardCharsets.ISO_8859_1);
+        compiler = hash(bytes);
+    }
+
+    private static final AtomicInteger hits = new AtomicInteger();
+    private static final AtomicInteger misses = new AtomicInteger();
+    // the bytes the entries of each directory take, once listed in
+    // this run
+    private static final Map<Path, Long> sizes = new HashMap<>();
+
+    private final Path dir;
+    private final long limit;
+
+    public record Entry(TokenBuffer tokens, AstArena nodes) {
+    }
+
+    public ParseCache(String dir, long limit) {
+        this.dir = Path.of(dir);
+        this.limit = limit;
+    }
+
+    // a 64-bit hash of "s": its CRC-32 and its Adler-32, both done
+    // by native code, which is fast from the start of a run. It only
+    // names an entry: whether the entry is that of "s" is told by the
+    // text it holds. (A SHA-256 alone took 80 ms for 1.7 MB at the
+    // start of a run, before the JIT compiles it.)
+    static long hash(byte[] s) {
+        CRC32 crc = new CRC32();
+        crc.update(s);
+        Adler32 adler = new Adler32();
+        adler.update(s);
+        return crc.getValue() << 32 | adler.getValue();
+    }
+
+    // the key of "source", parsed with bodies as "bodies" says: lazy
+    // ones make a tree of their own.
+    private static long key(byte[] source, Control.Parser.Bodies bodies) {
+        return hash(source) ^ (compiler + bodies.ordinal()) * 0x9e3779b97f4a7c15L;
+    }
+
+    private Path path(long key) {
+        return this.dir.resolve(STR."\{String.format("%016x", key)}.tpc");
+    }
+
+    // the tree of "source", and its tokens if "withTokens", or null if
+    // it has no entry.
+    public Entry load(byte[] source, Control.Parser.Bodies bodies, boolean withTokens) {
+        long key = key(source, bodies);
+        Path path = path(key);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            if (in.getInt() != magic || in.getInt() != format || in.getLong() != compiler
+                    || in.getLong() != key || in.getInt() != source.length
+                    || in.slice(in.position(), source.length).mismatch(ByteBuffer.wrap(source)) >= 0) {
+                misses.incrementAndGet();
+                return null;
+            }
+            in.position(in.position() + source.length);
+            // the tokens are decoded from a copy, if at all, the tree
+            // read in place
+            ByteReader data = ByteReader.of(in.duplicate(), in.remaining());
+            SymbolTable symbols = SymbolTable.read(data);
+            int length = data.getInt();
+            TokenBuffer tokens = null;
+            if (withTokens)
+                tokens = TokenBuffer.read(source, symbols, data);
+            else
+                data.skip(length);
+            AstArena nodes = AstArena.read(symbols, in.position(in.position() + data.position()));
+            hits.incrementAndGet();
+            touch(path);
+            return new Entry(tokens, nodes);
+        } catch (IOException | RuntimeException e) {
+            // missing, or cut short
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    // mark the entry at "path" as just used.
+    private static void touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // removed by another run since
+        }
+    }
+
+    // keep the tokens and the tree of "source", then bring the cache
+    // back under its size, if over it.
+    public void store(byte[] source, Control.Parser.Bodies bodies, TokenBuffer tokens, AstArena nodes) {
+        long key = key(source, bodies);
+        ByteList out = new ByteList(source.length * 3);
+        out.addInt(magic);
+        out.addInt(format);
+        out.addLong(compiler);
+        out.addLong(key);
+        out.addInt(source.length);
+        out.addBytes(source, 0, source.length);
+        tokens.symbols().write(out);
+        ByteList tokenBytes = new ByteList(tokens.size() * 5);
+        tokens.write(tokenBytes);
+        out.addInt(tokenBytes.size());
+        out.addAll(tokenBytes);
+        nodes.write(out);
+        try {
+            Files.createDirectories(this.dir);
+            Path temp = Files.createTempFile(this.dir, null, ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    ByteBuffer bytes = out.buffer();
+                    while (bytes.hasRemaining())
+                        channel.write(bytes);
+                }
+                Files.move(temp, path(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            grow(out.size());
+        } catch (IOException e) {
+            // the run goes on without the entry
+            System.err.println(STR."Warning: parse cache: \{e.getMessage()}");
+        }
+    }
+
+    private record Stored(Path path, long size, long used) {
+    }
+
+    // count "bytes" more stored, listing the entries if none was
+    // counted yet; remove some if they take more than the limit.
+    private void grow(long bytes) throws IOException {
+        synchronized (sizes) {
+            List<Stored> files = null;
+            Long total = sizes.get(this.dir);
+            if (total == null) {
+                // the listing has the entry just stored
+                files = list();
+                total = size(files);
+            } else {
+                total += bytes;
+            }
+            if (total > this.limit) {
+                // others may have been stored or removed by other runs
+                if (files == null)
+                    files = list();
+                total = evict(files, size(files));
+            }
+            sizes.put(this.dir, total);
+        }
+    }
+
+    private List<Stored> list() throws IOException {
+        List<Stored> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(this.dir)) {
+            for (Path path : paths.filter(p -> p.toString().endsWith(".tpc")).toList()) {
+                try {
+                    files.add(new Stored(path, Files.size(path), Files.getLastModifiedTime(path).toMillis()));
+                } catch (IOException e) {
+                    // removed by another run
+                }
+            }
+        }
+        return files;
+    }
+
+    private static long size(List<Stored> files) {
+        long total = 0;
+        for (Stored file : files)
+            total += file.size();
+        return total;
+    }
+
+    // remove the entries used least recently until the rest take
+    // three quarters of the limit, so the next stores do not list them
+    // again at once; return the size of the rest.
+    private long evict(List<Stored> files, long total) throws IOException {
+        if (total <= this.limit)
+            return total;
+        files.sort(Comparator.comparingLong(Stored::used));
+        for (Stored file : files) {
+            if (total <= this.limit / 4 * 3)
+                break;
+            Files.deleteIfExists(file.path());
+            total -= file.size();
+        }
+        return total;
+    }
+
+    // print the hits and misses since the last report, which ends a
+    // run: the next lists the entries again.
+    public static void report() {
+        synchronized (sizes) {
+            sizes.clear();
+        }
+        System.out.println(STR."Parse cache: \{hits.getAndSet(0)} hits, \{misses.getAndSet(0)} misses");
+    }
+}
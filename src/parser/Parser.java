@@ -1,71 +1,213 @@
 package parser;
 
+import ast.Ast.Program;
+import ast.AstArena;
+import control.Control;
+import control.Exit;
 import lexer.Lexer;
+import lexer.ParallelLexer;
+import lexer.SymbolTable;
+import lexer.TableLexer;
 import lexer.Token;
-import util.Todo;
-
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
+import lexer.TokenBuffer;
+import lexer.TokenStream;
+import util.IntList;
+import util.Stats;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.EnumSet;
 import java.util.HashSet;
 
-import static java.lang.System.exit;
-
 public class Parser {
     String inputFileName;
-    BufferedInputStream inputStream;
-    Lexer lexer;
-    Token current;
-    Token next = null;
+    TokenStream tokens;
+    // the tree is built here
+    AstArena nodes;
+    // kind of the current token
+    Token.Kind current;
+    // with "-parser iterative", parses statements and expressions
+    IterativeParser iterative;
+    // with "-parallel-classes", parses the class declarations
+    ParallelParser parallel;
+    // all the tokens, if they were scanned ahead
+    TokenBuffer buffer;
+    // scan all the tokens ahead, even for the hand-written lexer
+    boolean keepTokens = false;
+    // when to parse method bodies
+    Control.Parser.Bodies bodies = Control.Parser.bodies;
+    // a parser on a worker thread reports no errors, only counts them
+    private boolean quiet = false;
+    // the diagnostics of a lazy parse, held back until its bodies are
+    // parsed; null once printed
+    private ByteArrayOutputStream held = null;
+    // where the phases are measured, for "-stats"; null for nowhere
+    private Stats stats = null;
 
     public Parser(String fileName) {
         this.inputFileName = fileName;
     }
 
+    // a parser that measures its phases into "stats".
+    public Parser(String fileName, Stats stats) {
+        this.inputFileName = fileName;
+        this.stats = stats;
+    }
+
+    // a quiet parser over "tokens", building into "nodes".
+    Parser(String fileName, TokenStream tokens, AstArena nodes) {
+        this.inputFileName = fileName;
+        this.tokens = tokens;
+        this.current = tokens.kind();
+        this.nodes = nodes;
+        this.quiet = true;
+        if (Control.Parser.engine == Control.Parser.Engine.Iterative)
+            this.iterative = new IterativeParser(this);
+    }
+
     // /////////////////////////////////////////////
     // utility methods to connect the lexer and the parser.
-    private void advance() {
-            if(next != null) {
-                current = next;
-                next = null;
-            } else {
-                current = lexer.nextToken();
-            }
+    void advance() {
+        tokens.advance();
+        current = tokens.kind();
+    }
+
+    // the kind of the token after the current one.
+    private Token.Kind peekNext() {
+        return tokens.peek(1);
     }
 
-    private void eatToken(Token.Kind kind) throws Exception {
-        if (kind.equals(current.kind)) {
-            //if (current.rowNum == -1) return;
+    // eat a token of the given kind, or report a syntax error.
+    // Nothing is eaten while recovering from an error.
+    boolean eatToken(Token.Kind kind) {
+        if (recovering)
+            return false;
+        if (kind.equals(current)) {
             advance();
-            return;
+            return true;
         }
-        System.out.println(STR."Expects: \{kind}");
-        System.out.println(STR."But got: \{current.kind}");
+        expected(kind.toString());
+        return false;
+    }
+
+    // eat an identifier, and return its symbol id, or -1.
+    int eatId() {
+        int id = tokens.symbol();
+        return eatToken(Token.Kind.ID) ? id : -1;
+    }
+
+    // /////////////////////////////////////////////
+    // syntax errors. On an error the parser goes into panic mode:
+    // it eats nothing, and reports nothing, until the enclosing
+    // statement or declaration calls "sync()" with the tokens that
+    // may follow it, which skips to one of them. No exception is
+    // thrown; a part that could not be parsed is -1.
+    boolean recovering = false;
+    int errors = 0;
+    // where the last recovery stopped; an error right there is one
+    // already reported, seen again by an enclosing rule
+    private int resumedAt = -1;
+
+    // The tokens to resume at after a syntax error, for each
+    // nonterminal: what may follow it (its FOLLOW set), less "id",
+    // which also occurs inside it, plus what may follow the rules
+    // enclosing it, so that recovery does not run past them. A ";"
+    // or "}" that ends the broken part is eaten.
+    static final EnumSet<Token.Kind> afterStatement = EnumSet.of(
+            Token.Kind.SEMICOLON, Token.Kind.LBRACE, Token.Kind.RBRACE, Token.Kind.IF,
+            Token.Kind.WHILE, Token.Kind.ELSE, Token.Kind.RETURN,
+            Token.Kind.PUBLIC, Token.Kind.CLASS, Token.Kind.EOF);
+    private static final EnumSet<Token.Kind> afterVarDecl = EnumSet.of(
+            Token.Kind.SEMICOLON, Token.Kind.INT, Token.Kind.BOOLEAN, Token.Kind.LBRACE,
+            Token.Kind.RBRACE, Token.Kind.IF, Token.Kind.WHILE, Token.Kind.RETURN,
+            Token.Kind.PUBLIC, Token.Kind.CLASS, Token.Kind.EOF);
+    // the header of a method or a class is followed by its body
+    private static final EnumSet<Token.Kind> afterMethodHeader = EnumSet.of(
+            Token.Kind.LBRACE, Token.Kind.PUBLIC, Token.Kind.RBRACE, Token.Kind.CLASS, Token.Kind.EOF);
+    private static final EnumSet<Token.Kind> afterMethod = EnumSet.of(
+            Token.Kind.RBRACE, Token.Kind.PUBLIC, Token.Kind.CLASS, Token.Kind.EOF);
+    private static final EnumSet<Token.Kind> afterClassHeader = EnumSet.of(
+            Token.Kind.LBRACE, Token.Kind.CLASS, Token.Kind.EOF);
+    private static final EnumSet<Token.Kind> afterClass = EnumSet.of(
+            Token.Kind.RBRACE, Token.Kind.CLASS, Token.Kind.EOF);
+
+    // the syntax errors so far, with the diagnostics of the lexer;
+    // these count against "-max-errors" too.
+    private int total() {
+        return tokens == null ? errors : errors + tokens.errors();
+    }
+
+    // report that "what" was expected at the current token.
+    void expected(String what) {
+        recovering = true;
+        if (tokens.index() == resumedAt)
+            return;
+        errors++;
+        if (quiet || total() > Control.Parser.maxErrors)
+            return;
+        PrintStream out = report();
+        out.println(STR."Expects: \{what}");
+        out.println(STR."But got: \{current}");
         error("syntax error");
+        if (total() == Control.Parser.maxErrors)
+            out.println(STR."\{inputFileName}: too many errors, the rest is skipped");
     }
 
-    private void error(String errMsg) throws Exception {
-        System.out.println(STR."\{inputFileName}:\{current.rowNum}:\{current.colNum} Error: \{errMsg}");
-        System.out.println(STR."\{lexer.getCurrentLine()}");
-        for (int i = 1; i < current.colNum; i++) {
-            System.out.print(" ");
+    private void error(String errMsg) {
+        PrintStream out = report();
+        int rowNum = tokens.row();
+        int colNum = tokens.col();
+        out.println(STR."\{inputFileName}:\{rowNum}:\{colNum} Error: \{errMsg}");
+        out.println(STR."\{tokens.line()}");
+        for (int i = 1; i < colNum; i++) {
+            out.print(" ");
         }
-        System.out.println(STR."^");
-        advance();
-        throw new Exception();
+        out.println(STR."^");
+    }
+
+    // where the diagnostics go: held back, or printed.
+    private PrintStream report() {
+        return held != null ? new PrintStream(held, false, System.out.charset()) : System.out;
+    }
+
+    // print the diagnostics held back, if any.
+    private void release() {
+        if (held == null)
+            return;
+        System.out.write(held.toByteArray(), 0, held.size());
+        System.out.flush();
+        held = null;
     }
 
     private void error(String errMsg, boolean flag) {
         if (flag) {
             System.out.println(STR."\{inputFileName}: Error: \{errMsg}, compilation aborting...\n");
-            exit(1);
+            throw new Exit(1);
         }
     }
 
-    private void errorShift(String errMsg, Token.Kind kind) {
-        System.out.println(errMsg);
-        //System.out.println();
-        next = current;
-        current = new Token(kind, -1, -1);
+    // leave panic mode, if in it: skip to a token of "follow", passing
+    // over whole pairs of braces, and eat it if it is "end", the token
+    // ending the broken part, if any. After too many errors, skip to
+    // the end of the input.
+    void sync(EnumSet<Token.Kind> follow, Token.Kind end) {
+        if (!recovering)
+            return;
+        boolean giveUp = total() >= Control.Parser.maxErrors;
+        int depth = 0;
+        while (!current.equals(Token.Kind.EOF)) {
+            if (depth == 0 && !giveUp && follow.contains(current))
+                break;
+            if (current.equals(Token.Kind.LBRACE))
+                depth++;
+            else if (current.equals(Token.Kind.RBRACE) && depth > 0)
+                depth--;
+            advance();
+        }
+        if (current.equals(end))
+            advance();
+        recovering = false;
+        resumedAt = tokens.index();
     }
 
     // ////////////////////////////////////////////////////////////
@@ -73,19 +215,22 @@ public class Parser {
 
     // A bunch of parsing methods to parse expressions.
     // The messy parts are to deal with precedence and associativity.
+    // An expression that could not be parsed is -1, and leaves the
+    // parser recovering.
 
     // ExpList -> Exp ExpRest*
     // ->
     // ExpRest -> , Exp
-    private void parseExpList() throws Exception {
-        if (current.kind.equals(Token.Kind.RPAREN))
-            return;
-        parseExp();
-        while (current.kind.equals(Token.Kind.COMMA)) {
+    private IntList parseExpList() {
+        IntList args = new IntList();
+        if (current.equals(Token.Kind.RPAREN))
+            return args;
+        args.add(parseExp());
+        while (!recovering && current.equals(Token.Kind.COMMA)) {
             advance();
-            parseExp();
+            args.add(parseExp());
         }
-        return;
+        return args;
     }
 
     // AtomExp -> (exp)
@@ -96,52 +241,61 @@ public class Parser {
     // -> id
     // -> new int [exp]
     // -> new id ()
-    private void parseAtomExp() throws Exception {
-        switch (current.kind) {
-            case LPAREN:
+    private int parseAtomExp() {
+        switch (current) {
+            case LPAREN: {
                 advance();
-                parseExp();
+                int exp = parseExp();
                 eatToken(Token.Kind.RPAREN);
-                return;
-            case ID:
+                return recovering ? -1 : exp;
+            }
+            case ID: {
+                int id = tokens.symbol();
                 advance();
-                return;
+                return nodes.named(AstArena.Kind.Id, id);
+            }
             case NEW: {
                 advance();
-                switch (current.kind) {
-                    case INT:
+                switch (current) {
+                    case INT: {
                         advance();
                         eatToken(Token.Kind.LBRACKET);
-                        parseExp();
+                        int exp = parseExp();
                         eatToken(Token.Kind.RBRACKET);
-                        return;
-                    case ID:
+                        return recovering ? -1 : nodes.unary(AstArena.Kind.NewIntArray, exp);
+                    }
+                    case ID: {
+                        int id = tokens.symbol();
                         advance();
                         eatToken(Token.Kind.LPAREN);
                         eatToken(Token.Kind.RPAREN);
-                        return;
+                        return recovering ? -1 : nodes.named(AstArena.Kind.NewObject, id);
+                    }
                     default:
-                        throw new Todo();
+                        expected("INT or ID");
+                        return -1;
                 }
             }
             case INTEGER_LITERAL: {
+                int num = tokens.value();
                 advance();
-                return;
+                return nodes.intLiteral(num);
             }
             case TRUE: {
                 advance();
-                return;
+                return nodes.leaf(AstArena.Kind.True);
             }
             case FALSE: {
                 advance();
-                return;
+                return nodes.leaf(AstArena.Kind.False);
             }
             case THIS: {
                 advance();
-                return;
+                return nodes.leaf(AstArena.Kind.This);
             }
             default:
-                throw new Todo();
+                expected("expression");
+                return -1;
         }
     }
 
@@ -149,342 +303,400 @@ public class Parser {
     // -> AtomExp .id (expList)
     // -> AtomExp [exp]
     // -> AtomExp .length
-    private void parseNotExp() throws Exception {
-        parseAtomExp();
-        while (current.kind.equals(Token.Kind.DOT) ||
-                current.kind.equals(Token.Kind.LBRACKET)) {
-            if (current.kind.equals(Token.Kind.DOT)) {
+    private int parseNotExp() {
+        int exp = parseAtomExp();
+        while (!recovering && (current.equals(Token.Kind.DOT) ||
+                current.equals(Token.Kind.LBRACKET))) {
+            if (current.equals(Token.Kind.DOT)) {
                 advance();
-                if (current.kind.equals(Token.Kind.LENGTH)) {
+                if (current.equals(Token.Kind.LENGTH)) {
                     advance();
-                    return;
+                    return nodes.unary(AstArena.Kind.Length, exp);
                 }
-                eatToken(Token.Kind.ID);
+                int id = eatId();
                 eatToken(Token.Kind.LPAREN);
-                parseExpList();
+                IntList args = parseExpList();
                 eatToken(Token.Kind.RPAREN);
+                if (recovering)
+                    return -1;
+                exp = nodes.call(exp, id, args);
             } else {
                 advance();
-                parseExp();
+                int index = parseExp();
                 eatToken(Token.Kind.RBRACKET);
+                if (recovering)
+                    return -1;
+                exp = nodes.arraySelect(exp, index);
             }
         }
-        return;
+        return recovering ? -1 : exp;
     }
 
-    // TimesExp -> ! TimesExp
-    // -> NotExp
-    private void parseTimesExp() throws Exception {
-        if (current.kind.equals(Token.Kind.NOT)) {
-            advance();
-            parseTimesExp();
-        } else {
-            parseNotExp();
+    // the binary operators, loosest first: the token, its binding
+    // power, and how the tree spells it. "!" is a prefix operator
+    // binding tighter than all of them.
+    private static final Object[][] binaryOperators = {
+            {Token.Kind.AND, 1, "&&"},
+            {Token.Kind.LESS, 2, "<"},
+            {Token.Kind.ADD, 3, "+"},
+            {Token.Kind.MINUS, 3, "-"},
+            {Token.Kind.TIMES, 4, "*"},
+    };
+    // binding power by token kind, 0 for what is not a binary operator
+    static final int[] bindingPower = new int[Token.Kind.values().length];
+    static final String[] bopName = new String[Token.Kind.values().length];
+    // above every binding power
+    static final int noLimit = 5;
+
+    static {
+        for (Object[] op : binaryOperators) {
+            int kind = ((Token.Kind) op[0]).ordinal();
+            bindingPower[kind] = (Integer) op[1];
+            bopName[kind] = (String) op[2];
         }
-        return;
     }
 
-    // AddSubExp -> TimesExp * TimesExp
-    // -> TimesExp
-    private void parseAddSubExp() throws Exception {
-        parseTimesExp();
-        if (current.kind.equals(Token.Kind.TIMES)) {
-            advance();
-            parseTimesExp();
-        }
-        return;
-    }
-
-    // LtExp -> AddSubExp + AddSubExp
-    // -> AddSubExp - AddSubExp
-    // -> AddSubExp
-    private void parseLtExp() throws Exception {
-        parseAddSubExp();
-        if (current.kind.equals(Token.Kind.ADD) || current.kind.equals(Token.Kind.MINUS)) {
+    // UnaryExp -> ! UnaryExp
+    // -> NotExp
+    private int parseUnaryExp() {
+        int nots = 0;
+        while (current.equals(Token.Kind.NOT)) {
             advance();
-            parseAddSubExp();
+            nots++;
         }
-        return;
+        int exp = parseNotExp();
+        if (recovering)
+            return -1;
+        // innermost first, so each "!" follows its operand
+        for (; nots > 0; nots--)
+            exp = nodes.unary(AstArena.Kind.Not, exp);
+        return exp;
     }
 
-    // AndExp -> LtExp < LtExp
-    // -> LtExp
-    private void parseAndExp() throws Exception {
-        parseLtExp();
-        if (current.kind.equals(Token.Kind.LESS)) {
+    // Exp -> UnaryExp (bop UnaryExp)*
+    // by precedence climbing over "bindingPower". The grammar has one
+    // level per operator and each level takes at most one operator,
+    // so operators are non-associative: "a + b + c" and "a < b < c"
+    // are syntax errors. Hence an operator is only taken when it binds
+    // looser than the one before it: "a * b + c * d < e && f" parses,
+    // and the second "+" of "a + b + c" is left to the caller.
+    // Only operators binding tighter than "floor" are taken, which is
+    // how the right operand of an operator stops at its own level.
+    private int parseExp(int floor) {
+        int left = parseUnaryExp();
+        if (recovering)
+            return -1;
+        int ceiling = noLimit;
+        int power = bindingPower[current.ordinal()];
+        while (power > floor && power < ceiling) {
+            String bop = bopName[current.ordinal()];
             advance();
-            parseLtExp();
+            int right = parseExp(power);
+            if (recovering)
+                return -1;
+            left = nodes.bop(left, bop, right);
+            ceiling = power;
+            power = bindingPower[current.ordinal()];
         }
-        return;
+        return left;
     }
 
-    // Exp -> AndExp && AndExp
-    // -> AndExp
-    private void parseExp() throws Exception {
-        parseAndExp();
-        if (current.kind.equals(Token.Kind.AND)) {
-            advance();
-            parseAndExp();
-        }
-        return;
+    private int parseExp() {
+        if (recovering)
+            return -1;
+        if (iterative != null)
+            return iterative.parseExp();
+        return parseExp(0);
     }
 
-
-    private static boolean needRbrace = false;
-
     // Statement -> { Statement* }
     // -> if ( Exp ) Statement else Statement
     // -> while ( Exp ) Statement
     // -> System.out.println ( Exp ) ;
     // -> id = Exp ;
     // -> id [ Exp ]= Exp ;
-    private void parseStatement() {
-        switch(current.kind) {
+    // Return -1 if no statement could be made out; after a syntax
+    // error in it, the tokens up to the next statement are skipped.
+    private int parseStatement() {
+        if (recovering)
+            return -1;
+        if (iterative != null)
+            return iterative.parseStatement();
+        int stm = parseStatement0();
+        sync(afterStatement, Token.Kind.SEMICOLON);
+        return stm;
+    }
+
+    // a statement in a statement recovers from its own errors, so
+    // "recovering" is only set by those of this one.
+    private int parseStatement0() {
+        switch (current) {
             case LBRACE: {
-                try {
-                    needRbrace = true;
-                    advance();
-                    parseStatements();
-                } catch (Exception e) {
-                    errorShift("Parse Error in parseStatement(LBRACE)", Token.Kind.RBRACE);
-                }
-                try {
-                    needRbrace = false;
-                    eatToken(Token.Kind.RBRACE);
-                    return;
-                } catch (Exception e) {
-                    //System.out.println("Parse Error in parseStatement(LBRACE)");
-                }
+                advance();
+                IntList stms = parseStatements();
+                eatToken(Token.Kind.RBRACE);
+                return recovering ? -1 : nodes.block(stms);
             }
-            case IF:
-                try {
-                    advance();
-                    eatToken(Token.Kind.LPAREN);
-                    parseExp();
-                    eatToken(Token.Kind.RPAREN);
-                    parseStatement();
-                    if (current.kind.equals(Token.Kind.ELSE)) {
-                        eatToken(Token.Kind.ELSE);
-                        parseStatement();
-                    }
-                    return;
-                } catch (Exception e) {
-                    errorShift("Parse Error in parseStatement(IF)", Token.Kind.SEMICOLON);
+            case IF: {
+                advance();
+                eatToken(Token.Kind.LPAREN);
+                int cond = parseExp();
+                eatToken(Token.Kind.RPAREN);
+                int thenn = parseStatement();
+                int elsee = -1;
+                if (current.equals(Token.Kind.ELSE)) {
+                    eatToken(Token.Kind.ELSE);
+                    elsee = parseStatement();
+                    if (elsee < 0)
+                        return -1;
                 }
-
-            case WHILE:
-                try {
+                return recovering || thenn < 0 ? -1 : nodes.ifStm(cond, thenn, elsee);
+            }
+            case WHILE: {
+                advance();
+                eatToken(Token.Kind.LPAREN);
+                int cond = parseExp();
+                eatToken(Token.Kind.RPAREN);
+                int body = parseStatement();
+                return recovering || body < 0 ? -1 : nodes.whileStm(cond, body);
+            }
+            case ID: {
+                if (tokens.symbol() == SymbolTable.SYSTEM) {
                     advance();
-                    eatToken(Token.Kind.LPAREN);
-                    parseExp();
-                    eatToken(Token.Kind.RPAREN);
-                    parseStatement();
-                    return;
-                } catch (Exception e) {
-                    errorShift("Parse Error in parseStatement(WHILE)", Token.Kind.SEMICOLON);
-                }
-
-            case ID:
-                try {
-                    if (current.lexeme.equals("System")) {
+                    if (eatToken(Token.Kind.DOT) && tokens.symbol() == SymbolTable.OUT) {
                         advance();
-                        eatToken(Token.Kind.DOT);
-                        if (current.lexeme.equals("out")) {
+                        if (eatToken(Token.Kind.DOT) && tokens.symbol() == SymbolTable.PRINTLN) {
                             advance();
-                            eatToken(Token.Kind.DOT);
-                            if (current.lexeme.equals("println")) {
-                                advance();
-                                eatToken(Token.Kind.LPAREN);
-                                parseExp();
-                                eatToken(Token.Kind.RPAREN);
-                                eatToken(Token.Kind.SEMICOLON);
-                                return;
-                            }
+                            eatToken(Token.Kind.LPAREN);
+                            int exp = parseExp();
+                            eatToken(Token.Kind.RPAREN);
+                            eatToken(Token.Kind.SEMICOLON);
+                            return recovering ? -1 : nodes.unary(AstArena.Kind.Print, exp);
                         }
                     }
+                    if (recovering)
+                        return -1;
+                }
+                int id = tokens.symbol();
+                advance();
+                if (current.equals(Token.Kind.LBRACKET)) {
                     advance();
-                    if (current.kind.equals(Token.Kind.LBRACKET)) {
-                        advance();
-                        parseExp();
-                        eatToken(Token.Kind.RBRACKET);
-                        eatToken(Token.Kind.ASSIGN);
-                        parseExp();
-                        eatToken(Token.Kind.SEMICOLON);
-                        return;
-                    } else if (current.kind.equals(Token.Kind.ASSIGN)) {
-                        advance();
-                        parseExp();
-                        eatToken(Token.Kind.SEMICOLON);
-                        return;
-                    }
-                } catch (Exception e) {
-                    //System.out.println("Parse Error in parseStatement(ID)");
-                    //errorShift("Parse Error in parseStatement(ID)", Token.Kind.SEMICOLON);
+                    int index = parseExp();
+                    eatToken(Token.Kind.RBRACKET);
+                    eatToken(Token.Kind.ASSIGN);
+                    int exp = parseExp();
+                    eatToken(Token.Kind.SEMICOLON);
+                    return recovering ? -1 : nodes.assignArray(id, index, exp);
                 }
+                eatToken(Token.Kind.ASSIGN);
+                int exp = parseExp();
+                eatToken(Token.Kind.SEMICOLON);
+                return recovering ? -1 : nodes.assign(id, exp);
+            }
+            default:
+                expected("statement");
+                return -1;
         }
     }
 
+    static boolean startsStatement(Token.Kind kind) {
+        return kind.equals(Token.Kind.LBRACE) ||
+                kind.equals(Token.Kind.IF) ||
+                kind.equals(Token.Kind.WHILE) ||
+                kind.equals(Token.Kind.ID);
+    }
+
     // Statements -> Statement Statements
     // ->
-    private void parseStatements() {
-        while (current.kind.equals(Token.Kind.LBRACE) ||
-                current.kind.equals(Token.Kind.IF) ||
-                current.kind.equals(Token.Kind.WHILE) ||
-                current.kind.equals(Token.Kind.ID)) {
-            parseStatement();
+    IntList parseStatements() {
+        IntList stms = new IntList();
+        while (!recovering && startsStatement(current)) {
+            int stm = parseStatement();
+            if (stm >= 0)
+                stms.add(stm);
         }
-        if (needRbrace && !current.kind.equals(Token.Kind.RBRACE)) {
-            errorShift("Parse Error in parseStatements", Token.Kind.RBRACE);
-        }
-        return;
+        return stms;
     }
 
     // Type -> int []
     // -> boolean
     // -> int
     // -> id
-    private void parseType() throws Exception {
-        switch (current.kind) {
+    private int parseType() {
+        if (recovering)
+            return -1;
+        switch (current) {
             case INT:
                 advance();
-                if (current.kind.equals(Token.Kind.LBRACKET)) {
+                if (current.equals(Token.Kind.LBRACKET)) {
                     advance();
                     eatToken(Token.Kind.RBRACKET);
+                    return recovering ? -1 : nodes.leaf(AstArena.Kind.TypeIntArray);
                 }
-                return;
+                return nodes.leaf(AstArena.Kind.TypeInt);
             case STRING:
                 advance();
-                if (current.kind.equals(Token.Kind.LBRACKET)) {
+                if (current.equals(Token.Kind.LBRACKET)) {
                     advance();
                     eatToken(Token.Kind.RBRACKET);
+                    return recovering ? -1 : nodes.leaf(AstArena.Kind.TypeStringArray);
                 }
-                return;
+                return nodes.named(AstArena.Kind.TypeClass, tokens.symbols().intern("String"));
             case BOOLEAN:
                 advance();
-                return;
-            case ID:
+                return nodes.leaf(AstArena.Kind.TypeBoolean);
+            case ID: {
+                int id = tokens.symbol();
                 advance();
-                return;
+                return nodes.named(AstArena.Kind.TypeClass, id);
+            }
             case VOID:
                 advance();
-                return;
+                return nodes.leaf(AstArena.Kind.TypeVoid);
             default:
-                throw new Todo();
+                expected("type");
+                return -1;
         }
     }
 
     // VarDecl -> Type id ;
-    private void parseVarDecl() {
+    // Return -1 if the declaration is broken; the tokens up to the
+    // next declaration or statement are then skipped.
+    private int parseVarDecl() {
         // to parse the "Type" non-terminal in this method,
         // instead of writing a fresh one.
-        try {
-            parseType();
-            eatToken(Token.Kind.ID);
-            eatToken(Token.Kind.SEMICOLON);
-        } catch (Exception e) {
-            //errorShift("Parse Error in parseVarDecl", Token.Kind.SEMICOLON);
+        int type = parseType();
+        int id = eatId();
+        eatToken(Token.Kind.SEMICOLON);
+        if (recovering) {
+            sync(afterVarDecl, Token.Kind.SEMICOLON);
+            return -1;
         }
+        return nodes.varDecl(type, id);
     }
 
     // VarDecls -> VarDecl VarDecls
     // ->
-    private void parseVarDecls() {
-        while (current.kind.equals(Token.Kind.INT) ||
-                current.kind.equals(Token.Kind.BOOLEAN) ||
-                current.kind.equals(Token.Kind.ID)) {
-            if (current.kind.equals(Token.Kind.ID)) {
-                if(!lexer.peekNextToken().kind.equals(Token.Kind.ID)) {
-                    return;
+    private IntList parseVarDecls() {
+        IntList decls = new IntList();
+        while (!recovering && (current.equals(Token.Kind.INT) ||
+                current.equals(Token.Kind.BOOLEAN) ||
+                current.equals(Token.Kind.ID))) {
+            if (current.equals(Token.Kind.ID)) {
+                if (!peekNext().equals(Token.Kind.ID)) {
+                    return decls;
                 }
             }
-            parseVarDecl();
+            int decl = parseVarDecl();
+            if (decl >= 0)
+                decls.add(decl);
         }
-        return;
+        return decls;
     }
 
     // FormalList -> Type id FormalRest*
     // ->
     // FormalRest -> , Type id
-    private void parseFormalList() throws Exception {
-        if (current.kind == Token.Kind.RPAREN) return;
-        if (current.kind == Token.Kind.COMMA) advance();
-        parseType();
-        eatToken(Token.Kind.ID);
-        parseFormalList();
+    private void parseFormalList(IntList formals) {
+        if (recovering || current == Token.Kind.RPAREN) return;
+        if (current == Token.Kind.COMMA) advance();
+        int type = parseType();
+        int id = eatId();
+        if (recovering) return;
+        formals.add(nodes.varDecl(type, id));
+        parseFormalList(formals);
     }
 
     // Method -> public Type id ( FormalList )
     // { VarDecl* Statement* return Exp ;}
-    private void parseMethod() {
+    // The parts lost to syntax errors are left empty or missing.
+    int parseMethod() {
+        int retType = -1;
+        int id = -1;
+        IntList formals = new IntList();
+        IntList locals = new IntList();
+        IntList stms = new IntList();
+        int retExp = -1;
         // to parse a method.
-        try {
-            eatToken(Token.Kind.PUBLIC);
-            parseType();
-            eatToken(Token.Kind.ID);
-            eatToken(Token.Kind.LPAREN);
-            parseFormalList();
-            eatToken(Token.Kind.RPAREN);
-        } catch (Exception e) {
-            errorShift("Parse Error in parseMethod", Token.Kind.LBRACE);
-        }
-        try {
-            eatToken(Token.Kind.LBRACE);
-            parseVarDecls();
-            parseStatements();
-            eatToken(Token.Kind.RETURN);
-            parseExp();
-            eatToken(Token.Kind.SEMICOLON);
-            eatToken(Token.Kind.RBRACE);
-        } catch (Exception e) {
-            errorShift("Parse Error in parseMethod", Token.Kind.RBRACE);
+        eatToken(Token.Kind.PUBLIC);
+        retType = parseType();
+        id = eatId();
+        eatToken(Token.Kind.LPAREN);
+        parseFormalList(formals);
+        eatToken(Token.Kind.RPAREN);
+        sync(afterMethodHeader, null);
+        if (!current.equals(Token.Kind.LBRACE))
+            return nodes.methodDecl(retType, id, formals, locals, stms, retExp);
+        // a lazy body is skipped by matching its braces, if they match
+        if (bodies != Control.Parser.Bodies.Eager) {
+            int from = tokens.index();
+            if (tokens.skipBlock()) {
+                current = tokens.kind();
+                return nodes.lazyMethodDecl(retType, id, formals, from, tokens.index());
+            }
         }
+        Body body = parseMethodBody();
+        return nodes.methodDecl(retType, id, formals, body.locals(), body.stms(), body.retExp());
+    }
+
+    record Body(IntList locals, IntList stms, int retExp) {
+    }
+
+    // MethodBody -> { VarDecl* Statement* return Exp ;}
+    Body parseMethodBody() {
+        eatToken(Token.Kind.LBRACE);
+        IntList locals = parseVarDecls();
+        IntList stms = parseStatements();
+        eatToken(Token.Kind.RETURN);
+        int retExp = parseExp();
+        eatToken(Token.Kind.SEMICOLON);
+        eatToken(Token.Kind.RBRACE);
+        sync(afterMethod, Token.Kind.RBRACE);
+        return new Body(locals, stms, retExp);
     }
 
     // MethodDecls -> MethodDecl MethodDecls
     // ->
-    private void parseMethodDecls() {
-        while(current.kind.equals(Token.Kind.PUBLIC)) {
-            parseMethod();
+    private IntList parseMethodDecls() {
+        IntList methods = new IntList();
+        while (!recovering && current.equals(Token.Kind.PUBLIC)) {
+            methods.add(parseMethod());
         }
+        return methods;
     }
 
     // ClassDecl -> class id { VarDecl* MethodDecl* }
     // -> class id extends id { VarDecl* MethodDecl* }
-    private void parseClassDecl() {
-        try {
-            eatToken(Token.Kind.CLASS);
-            eatToken(Token.Kind.ID);
-            if (current.kind.equals(Token.Kind.EXTENDS)) {
-                eatToken(Token.Kind.EXTENDS);
-                eatToken(Token.Kind.ID);
-            }
-        } catch (Exception e) {
-            errorShift("Parse Error in parseClassDecl", Token.Kind.LBRACE);
-        }
-        try {
-            eatToken(Token.Kind.LBRACE);
-            parseVarDecls();
-            if (current.kind.equals(Token.Kind.PUBLIC)) {
-                parseMethodDecls();
-            }
-        } catch (Exception e) {
-            errorShift("Parse Error in parseClassDecl", Token.Kind.RBRACE);
+    int parseClassDecl() {
+        int id = -1;
+        int extends_ = -1;
+        IntList fields = new IntList();
+        IntList methods = new IntList();
+        eatToken(Token.Kind.CLASS);
+        id = eatId();
+        if (current.equals(Token.Kind.EXTENDS)) {
+            eatToken(Token.Kind.EXTENDS);
+            extends_ = eatId();
         }
-        try {
-            eatToken(Token.Kind.RBRACE);
-        } catch (Exception e) {
-           // errorShift("Parse Error in parseClassDecl", Token.Kind.RBRACE);
-        }
-
+        sync(afterClassHeader, null);
+        eatToken(Token.Kind.LBRACE);
+        fields = parseVarDecls();
+        methods = parseMethodDecls();
+        eatToken(Token.Kind.RBRACE);
+        sync(afterClass, Token.Kind.RBRACE);
+        return nodes.classDecl(id, extends_, fields, methods);
     }
 
     // ClassDecls -> ClassDecl ClassDecls
     // ->
-    private void parseClassDecls() {
-        while (current.kind.equals(Token.Kind.CLASS)) {
-            parseClassDecl();
+    private IntList parseClassDecls() {
+        if (parallel != null)
+            return parallel.parseClassDecls();
+        IntList classes = new IntList();
+        while (current.equals(Token.Kind.CLASS)) {
+            classes.add(parseClassDecl());
         }
-        return;
+        return classes;
     }
 
     // MainClass -> class id {
@@ -492,79 +704,234 @@ public class Parser {
     //     Statement
     //   }
     // }
-    private void parseMainClass() {
+    int parseMainClass() {
         // Lab 1. Exercise 11: Fill in the missing code
         // to parse a main class as described by the
         // grammar above.
+        int id = -1;
+        int arg = -1;
+        int stm = -1;
+        eatToken(Token.Kind.CLASS);
+        id = eatId();
+        sync(afterClassHeader, null);
+        eatToken(Token.Kind.LBRACE);
+        eatToken(Token.Kind.PUBLIC);
+        eatToken(Token.Kind.STATIC);
+        parseType();
+        eatToken(Token.Kind.ID);
+        eatToken(Token.Kind.LPAREN);
+        parseType();
+        arg = eatId();
+        eatToken(Token.Kind.RPAREN);
+        sync(afterClassHeader, null);
+        eatToken(Token.Kind.LBRACE);
+        stm = parseStatement();
+        eatToken(Token.Kind.RBRACE);
+        sync(afterMethod, Token.Kind.RBRACE);
+        eatToken(Token.Kind.RBRACE);
+        sync(afterClass, Token.Kind.RBRACE);
+        return nodes.mainClass(id, arg, stm);
+    }
+
+    // Program -> MainClass ClassDecl*
+    private int parseProgram() {
+        int mainClass = parseMainClass();
+        IntList classes = parseClassDecls();
+        eatToken(Token.Kind.EOF);
+        return nodes.program(mainClass, classes);
+    }
+
+    private void initParser(byte[] source) {
+        SymbolTable symbols = new SymbolTable();
+        // the hand-written lexer is pulled on demand, a batch at a time,
+        // unless the classes are to be found ahead; the others scan the
+        // whole input first
+        if (stats != null)
+            stats.start(Stats.Phase.Lex);
+        TokenBuffer buffer = switch (Control.Lexer.engine) {
+            case Hand -> keepTokens || Control.Parser.parallelClasses || bodies != Control.Parser.Bodies.Eager
+                    ? new Lexer(this.inputFileName, source, symbols).tokenize() : null;
+            case Parallel -> new ParallelLexer(this.inputFileName, source, symbols).tokenize();
+            case Table -> new TableLexer(this.inputFileName, source, symbols).tokenize();
+        };
+        if (stats != null && buffer != null)
+            stats.end(Stats.Phase.Lex);
+        this.buffer = buffer;
+        this.tokens = (buffer == null)
+                ? new TokenStream(new Lexer(this.inputFileName, source, symbols))
+                : new TokenStream(buffer);
+        this.nodes = new AstArena(symbols);
+        initEngines();
+    }
+
+    // the token stream and the engines, over "buffer", if any, and
+    // into "nodes": for a parse, or for the bodies of a cached tree.
+    private void initEngines() {
+        if (this.tokens == null)
+            this.tokens = new TokenStream(this.buffer);
+        this.current = tokens.kind();
+        if (Control.Parser.engine == Control.Parser.Engine.Iterative)
+            this.iterative = new IterativeParser(this);
+        if (Control.Parser.parallelClasses)
+            this.parallel = new ParallelParser(this, buffer);
+    }
+
+    // parse into the compact arena encoding; the root is the program.
+    public AstArena parseArena() {
+        byte[] source = null;
+        if (stats != null)
+            stats.start(Stats.Phase.Open);
         try {
-            eatToken(Token.Kind.CLASS);
-            eatToken(Token.Kind.ID);
-        } catch (Exception e) {
-            errorShift("Parse Error in parseMainClass", Token.Kind.LBRACE);
-        }
-        try {
-            eatToken(Token.Kind.LBRACE);
-            eatToken(Token.Kind.PUBLIC);
-            eatToken(Token.Kind.STATIC);
-            parseType();
-            eatToken(Token.Kind.ID);
-            eatToken(Token.Kind.LPAREN);
-            parseType();
-            eatToken(Token.Kind.ID);
-            eatToken(Token.Kind.RPAREN);
+            source = Lexer.readSource(this.inputFileName);
         } catch (Exception e) {
-            errorShift("Parse Error in parseMainClass", Token.Kind.LBRACE);
+            error(STR."unable to open file", true);
         }
-        try {
-            eatToken(Token.Kind.LBRACE);
-            parseStatement();
-            eatToken(Token.Kind.RBRACE);
-        } catch (Exception e) {
-            errorShift("Parse Error in parseMainClass", Token.Kind.RBRACE);
+        if (stats != null)
+            stats.end(Stats.Phase.Open);
+        if (Control.Parser.cacheDir == null)
+            return parseArena(source);
+        ParseCache cache = new ParseCache(Control.Parser.cacheDir, Control.Parser.cacheSize);
+        // the tokens are needed after the parse only for the skipped
+        // bodies, or to be dumped
+        boolean withTokens = keepTokens || bodies != Control.Parser.Bodies.Eager || Control.Lexer.dumpToken;
+        if (stats != null)
+            stats.start(Stats.Phase.CacheLoad);
+        ParseCache.Entry entry = cache.load(source, bodies, withTokens);
+        if (stats != null)
+            stats.end(Stats.Phase.CacheLoad);
+        if (entry != null) {
+            this.buffer = entry.tokens();
+            this.nodes = entry.nodes();
+            if (Control.Lexer.dumpToken)
+                this.buffer.dump();
+            // the bodies left to parse are parsed as after a miss
+            if (this.buffer != null)
+                initEngines();
+            return this.nodes;
         }
-        try {
-            eatToken(Token.Kind.RBRACE);
-        } catch (Exception e) {
-            System.out.println("Parse Error in parseMainClass");
-            // errorShift("Parse Error in parseMainClass", Token.Kind.RBRACE);
+        // the entry holds the tokens too
+        keepTokens = true;
+        parseArena(source);
+        // a file that printed any diagnostic is not kept, as a hit
+        // would not print it again
+        if (total() == 0) {
+            if (stats != null)
+                stats.start(Stats.Phase.CacheStore);
+            cache.store(source, bodies, buffer, nodes);
+            if (stats != null)
+                stats.end(Stats.Phase.CacheStore);
         }
-
+        return nodes;
     }
 
-    // Program -> MainClass ClassDecl*
-    private void parseProgram() {
-        parseMainClass();
-        parseClassDecls();
+    // parse "source", the text of the input file.
+    AstArena parseArena(byte[] source) {
+        initParser(source);
+        // see "forceBodies()"
+        if (bodies != Control.Parser.Bodies.Eager)
+            held = new ByteArrayOutputStream();
+        // without a token buffer, the lexer runs as the parser pulls
+        Stats.Phase phase = buffer == null ? Stats.Phase.LexParse : Stats.Phase.Parse;
+        if (stats != null)
+            stats.start(phase);
         try {
-            eatToken(Token.Kind.EOF);
-        } catch (Exception e) {
-            System.out.println("Parse Error in parseProgram");
+            parseProgram();
+        } finally {
+            tokens.close();
         }
+        nodes.trim();
+        if (stats != null)
+            stats.end(phase);
+        return nodes;
     }
 
-    private void initParser() {
-        try {
-            this.inputStream = new BufferedInputStream(new FileInputStream(this.inputFileName));
-        } catch (Exception e) {
-            error(STR."unable to open file", true);
-        }
+    // parse the body of the i-th method of class "clazz", if it was
+    // skipped; return the method. Its syntax errors are reported now,
+    // after those of the parse of the rest.
+    public int forceBody(int clazz, int i) {
+        release();
+        return parseBody(clazz, i);
+    }
 
-        this.lexer = new Lexer(this.inputFileName, this.inputStream);
-        this.current = lexer.nextToken();
+    int parseBody(int clazz, int i) {
+        int method = nodes.method(clazz, i);
+        if (nodes.kind(method) != AstArena.Kind.LazyMethodDecl)
+            return method;
+        // the body is parsed on its own, whatever state the parse of
+        // the rest was left in
+        tokens = new TokenStream(buffer, nodes.bodyFrom(method), nodes.bodyTo(method));
+        current = tokens.kind();
+        recovering = false;
+        Body body = parseMethodBody();
+        method = nodes.methodBody(method, body.locals(), body.stms(), body.retExp());
+        nodes.replaceMethod(clazz, i, method);
+        return method;
     }
 
-    private void finalizeParser() {
+    // parse all the skipped bodies, in source order; in parallel
+    // with "-bodies parallel". The diagnostics are then exactly those
+    // of an eager parse. The bodies are parsed quietly: if none has an
+    // error, the parse of the rest went as an eager one, and what it
+    // reported is printed. Otherwise an eager parse may have recovered
+    // from an error in a body past its end, and gone on differently;
+    // the whole file is then parsed again, eagerly, reporting its
+    // errors.
+    public void forceBodies() {
+        int before = errors;
+        quiet = true;
         try {
-            this.inputStream.close();
-        } catch (Exception e) {
-            error("unable to close file", true);
+            if (bodies == Control.Parser.Bodies.Parallel) {
+                new ParallelParser(this, buffer).forceBodies();
+            } else {
+                int program = nodes.root();
+                for (int c = 0; c < nodes.classes(program); c++) {
+                    int clazz = nodes.clazz(program, c);
+                    for (int i = 0; i < nodes.methods(clazz); i++)
+                        parseBody(clazz, i);
+                }
+            }
+        } finally {
+            quiet = false;
+        }
+        if (errors == before) {
+            release();
+            return;
+        }
+        held = null;
+        bodies = Control.Parser.Bodies.Eager;
+        tokens = new TokenStream(buffer);
+        errors = 0;
+        recovering = false;
+        resumedAt = -1;
+        nodes.clear();
+        initEngines();
+        try {
+            parseProgram();
+        } finally {
+            tokens.close();
         }
+        nodes.trim();
+    }
+
+    // the number of errors reported so far, by the parser and by the
+    // lexer.
+    public int errors() {
+        return total();
     }
 
-    public Object parse() {
-        initParser();
-        parseProgram();
-        finalizeParser();
-        return null;
+    // parse into an object tree, bodies included.
+    public Program.T parse() {
+        AstArena arena = parseArena();
+        if (stats != null)
+            stats.start(Stats.Phase.Bodies);
+        forceBodies();
+        if (stats != null) {
+            stats.end(Stats.Phase.Bodies);
+            stats.start(Stats.Phase.Tree);
+        }
+        Program.T program = arena.toProgram(arena.root());
+        if (stats != null)
+            stats.end(Stats.Phase.Tree);
+        return program;
     }
 }
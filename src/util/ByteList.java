@@ -0,0 +1,75 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// A growable list of bytes, for encoding: integers are little-endian,
+// or varints: seven bits a byte, the low ones first, with the high
+// bit set on all bytes but the last. A varint takes one byte under
+// 128, and five at most; a negative int takes five.
+public class ByteList {
+    private byte[] elements;
+    private int size;
+
+    public ByteList(int capacity) {
+        this.elements = new byte[Math.max(capacity, 8)];
+        this.size = 0;
+    }
+
+    private void reserve(int n) {
+        if (this.size + n > this.elements.length)
+            this.elements = Arrays.copyOf(this.elements, Math.max(this.size + n, this.elements.length << 1));
+    }
+
+    public void add(byte element) {
+        reserve(1);
+        this.elements[this.size++] = element;
+    }
+
+    public void addBytes(byte[] bytes, int offset, int length) {
+        reserve(length);
+        System.arraycopy(bytes, offset, this.elements, this.size, length);
+        this.size += length;
+    }
+
+    public void addAll(ByteList other) {
+        addBytes(other.elements, 0, other.size);
+    }
+
+    public void addInt(int n) {
+        reserve(Integer.BYTES);
+        for (int i = 0; i < Integer.BYTES; i++)
+            this.elements[this.size++] = (byte) (n >>> (8 * i));
+    }
+
+    public void addInts(int[] ints, int offset, int length) {
+        reserve(length * Integer.BYTES);
+        ByteBuffer.wrap(this.elements, this.size, length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                .asIntBuffer().put(ints, offset, length);
+        this.size += length * Integer.BYTES;
+    }
+
+    public void addLong(long n) {
+        addInt((int) n);
+        addInt((int) (n >>> 32));
+    }
+
+    public void addVarint(int n) {
+        reserve(5);
+        while ((n & ~0x7f) != 0) {
+            this.elements[this.size++] = (byte) (n | 0x80);
+            n >>>= 7;
+        }
+        this.elements[this.size++] = (byte) n;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    // the bytes added, as a buffer ready to be read.
+    public ByteBuffer buffer() {
+        return ByteBuffer.wrap(this.elements, 0, this.size);
+    }
+}
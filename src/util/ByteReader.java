@@ -0,0 +1,68 @@
+package util;
+
+import java.nio.ByteBuffer;
+
+// Reads back, from a byte array, what a "ByteList" was given.
+public class ByteReader {
+    private final byte[] bytes;
+    private int at;
+
+    public ByteReader(byte[] bytes) {
+        this.bytes = bytes;
+        this.at = 0;
+    }
+
+    // the "length" bytes at the position of "in", copied out in one
+    // bulk transfer; "in" is moved past them.
+    public static ByteReader of(ByteBuffer in, int length) {
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new ByteReader(bytes);
+    }
+
+    public int position() {
+        return this.at;
+    }
+
+    public boolean hasRemaining() {
+        return this.at < this.bytes.length;
+    }
+
+    public void skip(int n) {
+        this.at += n;
+    }
+
+    public byte get() {
+        return this.bytes[this.at++];
+    }
+
+    public void get(byte[] to, int offset, int length) {
+        System.arraycopy(this.bytes, this.at, to, offset, length);
+        this.at += length;
+    }
+
+    public int getInt() {
+        int n = 0;
+        for (int i = 0; i < Integer.BYTES; i++)
+            n |= (this.bytes[this.at++] & 0xff) << (8 * i);
+        return n;
+    }
+
+    public long getLong() {
+        long low = getInt() & 0xffffffffL;
+        return low | (long) getInt() << 32;
+    }
+
+    public int varint() {
+        int b = this.bytes[this.at++];
+        if (b >= 0)
+            return b;
+        int n = b & 0x7f;
+        for (int shift = 7; ; shift += 7) {
+            b = this.bytes[this.at++];
+            n |= (b & 0x7f) << shift;
+            if (b >= 0)
+                return n;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package util;
+
+import java.util.Arrays;
+
+// A growable list of ints, without boxing.
+public class IntList {
+    private int[] elements;
+    private int size;
+
+    public IntList() {
+        this.elements = new int[8];
+        this.size = 0;
+    }
+
+    public void add(int element) {
+        if (this.size == this.elements.length)
+            this.elements = Arrays.copyOf(this.elements, this.size << 1);
+        this.elements[this.size++] = element;
+    }
+
+    public int get(int i) {
+        return this.elements[i];
+    }
+
+    // remove the last element, and return it.
+    public int pop() {
+        return this.elements[--this.size];
+    }
+
+    public void clear() {
+        this.size = 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+}
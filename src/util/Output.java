@@ -0,0 +1,77 @@
+package util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+
+// The standard output and error, shared by compilations running side
+// by side: once installed, what a thread prints to "System.out" or
+// "System.err" goes to the stream it captures into, if any, and to
+// the standard output or error otherwise. A batch keeps what each
+// file prints apart this way, to print it in the order of the files;
+// a server sends what a request prints to its client.
+public class Output extends OutputStream {
+    // once installed
+    private static Output out = null;
+    private static Output err = null;
+
+    private final PrintStream standard;
+    private final ThreadLocal<OutputStream> captured = new ThreadLocal<>();
+
+    private Output(PrintStream standard) {
+        this.standard = standard;
+    }
+
+    // put the shared streams in place of "System.out" and "System.err".
+    public static synchronized void install() {
+        if (out != null)
+            return;
+        out = new Output(System.out);
+        err = new Output(System.err);
+        System.setOut(new PrintStream(out, true, System.out.charset()));
+        System.setErr(new PrintStream(err, true, System.err.charset()));
+    }
+
+    // the stream the current thread captures its output into, or null.
+    public static OutputStream captured() {
+        return out == null ? null : out.captured.get();
+    }
+
+    // call "task", keeping what the current thread prints in "to",
+    // and its errors in "errTo".
+    public static <T> T capture(OutputStream to, OutputStream errTo, Callable<T> task) throws Exception {
+        OutputStream outer = out.captured.get();
+        OutputStream outerErr = err.captured.get();
+        out.captured.set(to);
+        err.captured.set(errTo);
+        try {
+            return task.call();
+        } finally {
+            System.out.flush();
+            System.err.flush();
+            out.captured.set(outer);
+            err.captured.set(outerErr);
+        }
+    }
+
+    private OutputStream target() {
+        OutputStream to = this.captured.get();
+        return to != null ? to : this.standard;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        target().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        target().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        target().flush();
+    }
+}
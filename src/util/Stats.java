@@ -0,0 +1,124 @@
+package util;
+
+import java.lang.management.ManagementFactory;
+
+// The statistics of "-stats": for each phase of a compilation, its
+// wall time from "System.nanoTime()", and the CPU time and the bytes
+// allocated by the thread that runs it, from the thread MX bean. Work
+// a phase hands to a pool, as with "-lexer parallel", shows in its
+// wall time only. A phase that runs more than once adds up.
+// Without "-stats", the compiler holds null instead of a "Stats", and
+// skips every call.
+public class Stats {
+    public enum Phase {
+        Open("open"),
+        CacheLoad("cache load"),
+        Lex("lex"),
+        Parse("parse"),
+        // the hand-written lexer, pulled by the parser as it goes
+        LexParse("lex+parse"),
+        CacheStore("cache store"),
+        Bodies("bodies"),
+        Tree("tree"),
+        Count("ast stats");
+
+        private final String title;
+
+        Phase(String title) {
+            this.title = title;
+        }
+    }
+
+    private static final Phase[] phases = Phase.values();
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static {
+        if (threads.isThreadCpuTimeSupported())
+            threads.setThreadCpuTimeEnabled(true);
+        if (threads.isThreadAllocatedMemorySupported())
+            threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    // the totals of each phase, and where the last run of each started
+    private final long[] wall = new long[phases.length];
+    private final long[] cpu = new long[phases.length];
+    private final long[] allocated = new long[phases.length];
+    private final boolean[] ran = new boolean[phases.length];
+    private final long[] wallStart = new long[phases.length];
+    private final long[] cpuStart = new long[phases.length];
+    private final long[] allocatedStart = new long[phases.length];
+
+    public void start(Phase phase) {
+        int i = phase.ordinal();
+        this.allocatedStart[i] = threads.getCurrentThreadAllocatedBytes();
+        this.cpuStart[i] = threads.getCurrentThreadCpuTime();
+        this.wallStart[i] = System.nanoTime();
+    }
+
+    public void end(Phase phase) {
+        long wall = System.nanoTime();
+        long cpu = threads.getCurrentThreadCpuTime();
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        int i = phase.ordinal();
+        this.wall[i] += wall - this.wallStart[i];
+        this.cpu[i] += cpu - this.cpuStart[i];
+        this.allocated[i] += allocated - this.allocatedStart[i];
+        this.ran[i] = true;
+    }
+
+    // add the totals of "other" to these.
+    public void add(Stats other) {
+        for (int i = 0; i < phases.length; i++) {
+            this.wall[i] += other.wall[i];
+            this.cpu[i] += other.cpu[i];
+            this.allocated[i] += other.allocated[i];
+            this.ran[i] |= other.ran[i];
+        }
+    }
+
+    // print the phases that ran, and their total, for "what": as a
+    // table, or as a line of JSON.
+    public void report(String what, boolean json) {
+        long wall = 0;
+        long cpu = 0;
+        long allocated = 0;
+        for (int i = 0; i < phases.length; i++) {
+            wall += this.wall[i];
+            cpu += this.cpu[i];
+            allocated += this.allocated[i];
+        }
+        if (json) {
+            StringBuilder out = new StringBuilder();
+            out.append("{\"input\":\"").append(what.replace("\\", "\\\\").replace("\"", "\\\"")).append("\",\"phases\":[");
+            String separator = "";
+            for (int i = 0; i < phases.length; i++) {
+                if (!this.ran[i])
+                    continue;
+                out.append(separator).append("{\"phase\":\"").append(phases[i].title).append("\",");
+                row(out, this.wall[i], this.cpu[i], this.allocated[i]);
+                out.append('}');
+                separator = ",";
+            }
+            out.append("],\"total\":{");
+            row(out, wall, cpu, allocated);
+            out.append("}}");
+            System.out.println(out);
+            return;
+        }
+        System.out.println(STR."Phases of \{what}:");
+        System.out.println(String.format("  %-12s %12s %12s %14s", "phase", "wall ms", "cpu ms", "allocated B"));
+        for (int i = 0; i < phases.length; i++) {
+            if (this.ran[i])
+                System.out.println(String.format("  %-12s %12.3f %12.3f %14d",
+                        phases[i].title, this.wall[i] / 1e6, this.cpu[i] / 1e6, this.allocated[i]));
+        }
+        System.out.println(String.format("  %-12s %12.3f %12.3f %14d", "total", wall / 1e6, cpu / 1e6, allocated));
+    }
+
+    private static void row(StringBuilder out, long wall, long cpu, long allocated) {
+        out.append("\"wallNs\":").append(wall)
+                .append(",\"cpuNs\":").append(cpu)
+                .append(",\"allocatedBytes\":").append(allocated);
+    }
+}